@@ -3,6 +3,7 @@ package ragstoriches.Api;
 import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 import javax.crypto.SecretKey;
 
@@ -15,17 +16,32 @@ import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.security.Keys;
 import ragstoriches.User;
+import ragstoriches.database.CacheCoherence;
 import ragstoriches.database.MongoDB;
+import ragstoriches.resilience.Bulkhead;
 
 public class AuthApi {
 
     private final MongoCollection<User> userCollection;
     private final SecretKey jwtKey;
+    private final Bulkhead mongo;
+    private final Bulkhead password; // BCrypt is deliberately CPU-heavy; keep it off the other routes' cores
+    private final GuestSessions guests;
+    private final CacheCoherence coherence;
+
+    // Same hook as GameApi's: a new account (maybe a promoted high-scoring guest) can land on the board
+    private Consumer<User> scoreListener = user -> {
+    };
 
     // Token valid for 30 days
     private static final long JWT_EXPIRY_MS = 30L * 24 * 60 * 60 * 1000;
 
-    public AuthApi(String jwtSecret) {
+    public AuthApi(String jwtSecret, Bulkhead mongo, Bulkhead password, GuestSessions guests,
+            CacheCoherence coherence) {
+        this.mongo = mongo;
+        this.password = password;
+        this.guests = guests;
+        this.coherence = coherence;
         this.userCollection = MongoDB.getDatabase().getCollection("users", User.class);
         // Pad/trim secret to 32 bytes for HMAC-SHA256
         byte[] keyBytes = jwtSecret.getBytes(StandardCharsets.UTF_8);
@@ -35,20 +51,36 @@ public class AuthApi {
     }
 
     // ── REGISTER ─────────────────────────────────────────────────────────────
-    public AuthResult register(String name, String email, String rawPassword) {
+    // guestId (optional) is the id the player used before signing up; their progress carries over
+    public AuthResult register(String name, String email, String rawPassword, String guestId) {
         // 1. Check email not already taken
-        User existing = userCollection.find(Filters.eq("email", email)).first();
+        User existing = mongo.call(() -> userCollection.find(Filters.eq("email", email)).first());
         if (existing != null) {
             throw new RuntimeException("An account with this email already exists.");
         }
 
         // 2. Hash password with BCrypt (cost factor 12)
-        String hashed = BCrypt.hashpw(rawPassword, BCrypt.gensalt(12));
+        String hashed = password.call(() -> BCrypt.hashpw(rawPassword, BCrypt.gensalt(12)));
 
         // 3. Create user with a fresh UUID
         String userId = UUID.randomUUID().toString();
         User newUser = User.createDefault(userId, name, email, hashed);
-        userCollection.insertOne(newUser);
+        User guest = guestId == null ? null : guests.get(guestId);
+        if (guest != null) {
+            adoptGuest(newUser, guest);
+        }
+        mongo.run(() -> userCollection.insertOne(newUser));
+        // Only once the account exists. A choice the guest made meanwhile is carried over;
+        // nobody else knows the new id yet, so a plain replace is safe
+        while (guest != null && !guests.promote(guestId, guest.version)) {
+            guest = guests.get(guestId);
+            if (guest != null) {
+                adoptGuest(newUser, guest);
+                mongo.run(() -> userCollection.replaceOne(Filters.eq("_id", userId), newUser));
+            }
+        }
+        scoreListener.accept(newUser);
+        coherence.invalidate(CacheCoherence.PROFILE, userId, newUser.overallScore); // other replicas' leaderboards
 
         // 4. Issue JWT
         String token = issueToken(userId);
@@ -56,16 +88,28 @@ public class AuthApi {
         return new AuthResult(token, newUser.withoutPassword());
     }
 
+    private static void adoptGuest(User account, User guest) {
+        account.stats = guest.stats;
+        account.appearance = guest.appearance;
+        account.inventory = guest.inventory;
+        account.history = guest.history;
+        account.calculateScore();
+    }
+
+    public void setScoreListener(Consumer<User> scoreListener) {
+        this.scoreListener = scoreListener;
+    }
+
     // ── LOGIN ─────────────────────────────────────────────────────────────────
     public AuthResult login(String email, String rawPassword) {
         // 1. Find user by email
-        User user = userCollection.find(Filters.eq("email", email)).first();
+        User user = mongo.call(() -> userCollection.find(Filters.eq("email", email)).first());
         if (user == null) {
             throw new RuntimeException("No account found with that email.");
         }
 
         // 2. Verify password
-        if (user.password == null || !BCrypt.checkpw(rawPassword, user.password)) {
+        if (user.password == null || !password.call(() -> BCrypt.checkpw(rawPassword, user.password))) {
             throw new RuntimeException("Incorrect password.");
         }
 
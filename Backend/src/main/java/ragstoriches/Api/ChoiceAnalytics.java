@@ -0,0 +1,226 @@
+package ragstoriches.Api;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bson.Document;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * Per-card, per-option choice counters: how often each option is picked and the
+ * stat deltas it produced.
+ *
+ * Works like a LongAdder spread over plain long[] arrays: every stripe has its own
+ * array, a thread only adds into its stripe, and reads sum across stripes. Slots are
+ * card ordinal * MAX_OPTIONS + option, with card ordinals handed out the first time
+ * a situationId is seen. Counts since the last flush are periodically $inc'ed into the
+ * "choice_rollups" collection, so every replica adds to the same totals.
+ * GET /api/analytics/choices reads this replica's in-memory counts.
+ */
+public class ChoiceAnalytics {
+    private static final int MAX_CARDS = 512;
+    private static final int MAX_OPTIONS = 8;
+    private static final int SLOTS = MAX_CARDS * MAX_OPTIONS;
+
+    // Per slot: picks, money delta (cents), knowledge delta, happiness delta
+    private static final int PICKS = 0;
+    private static final int MONEY_CENTS = 1;
+    private static final int KNOWLEDGE = 2;
+    private static final int HAPPINESS = 3;
+    private static final int FIELDS = 4;
+
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final long[][] stripes;
+    private final int stripeMask;
+
+    private final Map<Double, Integer> cardOrdinals = new ConcurrentHashMap<>();
+    private final double[] situationIds = new double[MAX_CARDS];
+    private final AtomicInteger nextOrdinal = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+
+    private final MongoCollection<Document> rollups;
+    private final long flushMillis;
+    // Totals already written to the rollup collection; only touched by flush()
+    private final long[] flushed = new long[SLOTS * FIELDS];
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushFailures = new LongAdder();
+
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "choice-analytics-flush");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public ChoiceAnalytics(MongoDatabase database, long flushMillis) {
+        this.rollups = database.getCollection("choice_rollups");
+        this.flushMillis = flushMillis;
+        int stripeCount = Integer.highestOneBit(Math.min(16, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+        this.stripes = new long[stripeCount][SLOTS * FIELDS];
+        this.stripeMask = stripeCount - 1;
+    }
+
+    public void start() {
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Writes what's left before shutdown
+    public void stop() {
+        flusher.shutdownNow();
+        flushQuietly();
+    }
+
+    // --- WRITES ---
+
+    public void record(double situationId, int option, double moneyDelta, int knowledgeDelta, int happinessDelta) {
+        int card = ordinal(situationId);
+        if (card < 0 || option < 0 || option >= MAX_OPTIONS) {
+            dropped.increment();
+            return;
+        }
+        long[] stripe = stripes[(int) Thread.currentThread().threadId() & stripeMask];
+        int base = (card * MAX_OPTIONS + option) * FIELDS;
+        LONGS.getAndAdd(stripe, base + PICKS, 1L);
+        LONGS.getAndAdd(stripe, base + MONEY_CENTS, Math.round(moneyDelta * 100));
+        LONGS.getAndAdd(stripe, base + KNOWLEDGE, (long) knowledgeDelta);
+        LONGS.getAndAdd(stripe, base + HAPPINESS, (long) happinessDelta);
+    }
+
+    // --- READS ---
+
+    // One row per card option that has been picked, optionally for a single card
+    public List<Map<String, Object>> snapshot(Double situationId) {
+        long[] totals = sum();
+        List<Map<String, Object>> rows = new ArrayList<>();
+        int cards = Math.min(nextOrdinal.get(), MAX_CARDS);
+        for (int card = 0; card < cards; card++) {
+            if (situationId != null && situationIds[card] != situationId) {
+                continue;
+            }
+            long cardPicks = 0;
+            for (int option = 0; option < MAX_OPTIONS; option++) {
+                cardPicks += totals[(card * MAX_OPTIONS + option) * FIELDS + PICKS];
+            }
+            for (int option = 0; option < MAX_OPTIONS; option++) {
+                int base = (card * MAX_OPTIONS + option) * FIELDS;
+                long picks = totals[base + PICKS];
+                if (picks == 0) {
+                    continue;
+                }
+                Map<String, Object> row = new LinkedHashMap<>();
+                row.put("situationId", situationIds[card]);
+                row.put("option", option);
+                row.put("picks", picks);
+                row.put("share", (double) picks / cardPicks);
+                row.put("avgMoneyDelta", totals[base + MONEY_CENTS] / 100.0 / picks);
+                row.put("avgFinanceKnowledgeDelta", (double) totals[base + KNOWLEDGE] / picks);
+                row.put("avgHappinessDelta", (double) totals[base + HAPPINESS] / picks);
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    public Map<String, Object> metrics() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("stripes", stripes.length);
+        m.put("cards", Math.min(nextOrdinal.get(), MAX_CARDS));
+        m.put("dropped", dropped.sum());
+        m.put("flushes", flushes.sum());
+        m.put("flushFailures", flushFailures.sum());
+        return m;
+    }
+
+    // --- FLUSHING ---
+
+    // $inc's everything counted since the last successful flush
+    private void flush() {
+        long[] totals = sum();
+        List<WriteModel<Document>> writes = new ArrayList<>();
+        int cards = Math.min(nextOrdinal.get(), MAX_CARDS);
+        for (int card = 0; card < cards; card++) {
+            for (int option = 0; option < MAX_OPTIONS; option++) {
+                int base = (card * MAX_OPTIONS + option) * FIELDS;
+                long picks = totals[base + PICKS] - flushed[base + PICKS];
+                if (picks == 0) {
+                    continue;
+                }
+                double situationId = situationIds[card];
+                writes.add(new UpdateOneModel<>(
+                        Filters.eq("_id", situationId + ":" + option),
+                        Updates.combine(
+                                Updates.set("situationId", situationId),
+                                Updates.set("option", option),
+                                Updates.inc("picks", picks),
+                                Updates.inc("moneyDelta", (totals[base + MONEY_CENTS] - flushed[base + MONEY_CENTS]) / 100.0),
+                                Updates.inc("financeKnowledgeDelta", totals[base + KNOWLEDGE] - flushed[base + KNOWLEDGE]),
+                                Updates.inc("happinessDelta", totals[base + HAPPINESS] - flushed[base + HAPPINESS]),
+                                Updates.set("updatedAt", new Date())),
+                        new UpdateOptions().upsert(true)));
+            }
+        }
+        if (writes.isEmpty()) {
+            return;
+        }
+        // A failed flush is retried in full next time (a partial failure can double-count a slot)
+        rollups.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+        System.arraycopy(totals, 0, flushed, 0, totals.length);
+        flushes.increment();
+    }
+
+    // --- INTERNALS ---
+
+    private synchronized void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            flushFailures.increment();
+            System.err.println("Choice analytics flush failed: " + e.getMessage());
+        }
+    }
+
+    // Returns -1 once MAX_CARDS distinct cards have been seen
+    private int ordinal(double situationId) {
+        Integer known = cardOrdinals.get(situationId);
+        if (known != null) {
+            return known;
+        }
+        return cardOrdinals.computeIfAbsent(situationId, id -> {
+            int ordinal = nextOrdinal.getAndIncrement();
+            if (ordinal < MAX_CARDS) {
+                situationIds[ordinal] = id;
+            }
+            return ordinal < MAX_CARDS ? ordinal : -1;
+        });
+    }
+
+    private long[] sum() {
+        long[] totals = new long[SLOTS * FIELDS];
+        int used = Math.min(nextOrdinal.get(), MAX_CARDS) * MAX_OPTIONS * FIELDS;
+        for (long[] stripe : stripes) {
+            for (int i = 0; i < used; i++) {
+                totals[i] += (long) LONGS.getVolatile(stripe, i);
+            }
+        }
+        return totals;
+    }
+}
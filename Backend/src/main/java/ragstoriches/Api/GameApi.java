@@ -1,202 +1,642 @@
 package ragstoriches.Api;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
+import org.bson.conversions.Bson;
 import org.bson.types.ObjectId; // <-- ADDED IMPORT
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.result.UpdateResult;
 
 import ragstoriches.Card;
 import ragstoriches.GameWardrobe;
+import ragstoriches.ItemCatalog;
+import ragstoriches.ItemSet;
+import ragstoriches.StatHistory;
 import ragstoriches.StatsCalculator;
 import ragstoriches.User;
+import ragstoriches.database.CacheCoherence;
 import ragstoriches.database.MongoDB;
+import ragstoriches.resilience.Bulkhead;
 
 public class GameApi {
+    // Old deck versions kept around to compute /cards?since= deltas; older clients get the full deck
+    private static final int RECENT_DECKS = 8;
+    // Gameplay re-applies a change to the newer copy this many times before giving up with a 409
+    private static final int MAX_SAVE_ATTEMPTS = 3;
+
+    // Canonical JSON for card hashes: same content, same bytes, whatever the field order in Mongo
+    private static final ObjectMapper canonical = JsonMapper.builder()
+            .enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY)
+            .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+            .build();
+
     private final MongoCollection<Card> cardCollection;
     private final MongoCollection<User> userCollection;
     private final StatsCalculator calculator;
+    private final CacheCoherence coherence;
+    private final Bulkhead mongo;
+    private final ProfileCache profiles;
+    private final ChoiceAnalytics analytics;
+    private final GuestSessions guests;
+
+    // Cards only change on a content push, which bumps the "cards" content version
+    private volatile Deck deck;
+    private final AtomicLong deckGeneration = new AtomicLong();
+    // Guarded by itself
+    private final LinkedHashMap<Long, Deck> recentDecks = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Deck> eldest) {
+            return size() > RECENT_DECKS;
+        }
+    };
 
-    public static final Map<String, GameWardrobe> ITEM_CATALOG = new HashMap<>();
-
-    static {
-        // Outfits
-        ITEM_CATALOG.put("business_suit", new GameWardrobe("business_suit", "Wall St Suit", "outfit", 500, 20));
-        ITEM_CATALOG.put("cool_hoodie", new GameWardrobe("cool_hoodie", "Designer Hoodie", "outfit", 200, 0));
-
-        // Hats
-        ITEM_CATALOG.put("red_cap", new GameWardrobe("red_cap", "Backwards Cap", "hat", 150, 0));
-        ITEM_CATALOG.put("grad_cap", new GameWardrobe("grad_cap", "Alumni Cap", "hat", 1000, 50));
-
-        // Accessories
-        ITEM_CATALOG.put("gold_chain", new GameWardrobe("gold_chain", "Gold Chain", "accessory", 2000, 0));
-        ITEM_CATALOG.put("shades", new GameWardrobe("shades", "Cool Shades", "glasses", 300, 0));
-    }
+    // Notified after every saveUser so the live leaderboard can decide whether to recompute
+    private Consumer<User> scoreListener = user -> {
+    };
 
-    public GameApi(StatsCalculator calculator) {
+    public GameApi(StatsCalculator calculator, CacheCoherence coherence, Bulkhead mongo, ProfileCache profiles,
+            ChoiceAnalytics analytics, GuestSessions guests) {
         this.calculator = calculator;
+        this.coherence = coherence;
+        this.mongo = mongo;
+        this.profiles = profiles;
+        this.analytics = analytics;
+        this.guests = guests;
         this.cardCollection = MongoDB.getDatabase().getCollection("cards", Card.class);
         this.userCollection = MongoDB.getDatabase().getCollection("users", User.class);
+
+        coherence.listen(CacheCoherence.CARDS, key -> invalidateDeck());
+        coherence.listen(CacheCoherence.CATALOG, key -> ItemCatalog.reload(MongoDB.getDatabase()));
+        coherence.listen(CacheCoherence.PROFILE, userId -> {
+            if (userId == null) {
+                profiles.clear();
+            } else {
+                profiles.invalidate(userId);
+            }
+        });
     }
 
     // --- READS ---
 
     public List<Card> getAllCards() {
-    // Adding Sorts.ascending ensures the Year 1 Narrative (0) 
-    // comes before Situation 1, and Year 2 Narrative (10.5) 
-    // comes exactly after Situation 10.
-    return cardCollection.find()
-                         .sort(Sorts.ascending("situationId"))
-                         .into(new ArrayList<>());
-}
+        return deck().cards;
+    }
+
+    public Card getCard(double situationId) {
+        return deck().bySituation.get(situationId);
+    }
+
+    // Monotonic across replicas: it's the shared "cards" content version
+    public long deckVersion() {
+        return deck().version;
+    }
+
+    // Cards for one content year, or the whole deck when year is null
+    public List<Card> getCards(Integer year) {
+        return year == null ? getAllCards() : new ArrayList<>(deck().scoped(year).values());
+    }
+
+    /**
+     * What changed in the deck (optionally just one year's cards) since a version the
+     * client already has. If that version is no longer remembered here the delta is
+     * marked full and "added" carries every card.
+     */
+    public DeckDelta cardsSince(long since, Integer year) {
+        Deck current = deck();
+        Deck base = since == current.version ? current : recentDeck(since);
+
+        DeckDelta delta = new DeckDelta();
+        delta.version = current.version;
+        delta.since = since;
+        Map<String, Card> after = current.scoped(year);
+        if (base == null) {
+            delta.full = true;
+            delta.added.addAll(after.values());
+            return delta;
+        }
+        if (base == current) {
+            return delta; // nothing changed
+        }
+
+        Map<String, Card> before = base.scoped(year);
+        for (Map.Entry<String, Card> entry : after.entrySet()) {
+            Card old = before.get(entry.getKey());
+            if (old == null) {
+                delta.added.add(entry.getValue());
+            } else if (!old.hash.equals(entry.getValue().hash)) {
+                delta.changed.add(entry.getValue());
+            }
+        }
+        for (String key : before.keySet()) {
+            if (!after.containsKey(key)) {
+                delta.removed.add(key);
+            }
+        }
+        return delta;
+    }
+
+    // Wardrobe items come from the (reloadable) catalog; ordinals index User.inventory bits
+    public ItemCatalog catalog() {
+        return ItemCatalog.get();
+    }
 
     // --- UPDATED: Safe ID Fetching ---
+    // Cached read for GET /profile; returns a private copy the caller may mutate
     public User getUser(String userId) {
-        try {
-            // Try searching for a proper MongoDB ObjectId (Real accounts)
-            return userCollection.find(Filters.eq("_id", new ObjectId(userId))).first();
-        } catch (IllegalArgumentException e) {
-            // Fallback: If it's a manual string like "test_user", search as a raw string
-            return userCollection.find(Filters.eq("_id", userId)).first();
+        User guest = guests.get(userId);
+        if (guest != null) {
+            return guest;
         }
+        return profiles.get(userId, this::findUser);
+    }
+
+    // Decoded progress chart data; null if there's no such player
+    public List<StatHistory.Point> getHistory(String userId) {
+        User user = getUser(userId);
+        return user == null ? null : StatHistory.decode(user.history);
+    }
+
+    public ProfileCache profileCache() {
+        return profiles;
+    }
+
+    public ChoiceAnalytics choiceAnalytics() {
+        return analytics;
+    }
+
+    public GuestSessions guestSessions() {
+        return guests;
+    }
+
+    // Read-modify-write paths always start from the stored document, never the cache
+    private User findUser(String userId) {
+        // ObjectId for real accounts, raw string for manual ids like "test_user"
+        return mongo.call(() -> userCollection.find(idFilter(userId)).first());
     }
 
     public List<User> getLeaderboard() {
-        return userCollection.find()
-                .sort(Sorts.descending("overallScore")) // Sort by score, not money
-                .limit(10)
-                .into(new ArrayList<>());
+        return getLeaderboard(10);
     }
 
-    // --- WRITES ---
+    public List<User> getLeaderboard(int limit) {
+        return mongo.call(() -> userCollection.find()
+                .sort(Sorts.descending("overallScore")) // Sort by score, not money
+                .limit(limit)
+                .into(new ArrayList<>()));
+    }
 
-    public User createUser(String userId) {
-        // Use our new Factory method to ensure stats exist
-        User newUser = User.createDefault(userId);
-        userCollection.insertOne(newUser);
-        return newUser;
+    public void setScoreListener(Consumer<User> scoreListener) {
+        this.scoreListener = scoreListener;
     }
 
+    // --- WRITES ---
+
     // --- UPDATED: Safe ID Saving ---
-    public User saveUser(User user) {
+    // Only lands if the stored document is still at the version the user was read at, so a
+    // save never overwrites a PATCH, another replica's save or a batch job. False if it didn't.
+    private boolean saveUser(User user) {
+        long readVersion = user.version;
         user.calculateScore(); // Recalculate score before saving
+        user.version = readVersion + 1; // Any open PATCH based on the old version will now get a 409
+
+        // ObjectId for real accounts, raw string for test accounts
+        UpdateResult result = mongo.call(() -> userCollection.replaceOne(
+                Filters.and(idFilter(user.id), versionFilter(readVersion)), user));
+        if (result.getMatchedCount() == 0) {
+            return false;
+        }
+
+        profiles.put(user);
+        scoreListener.accept(user);
+        coherence.invalidate(CacheCoherence.PROFILE, user.id, user.overallScore);
+        return true;
+    }
+
+    // Guests stay in memory: no Mongo write, no leaderboard, nothing to tell other replicas.
+    // Same compare-and-set on the version as saveUser; false if the guest moved on or registered
+    private boolean savePlayer(User user, boolean guest) {
+        if (!guest) {
+            return saveUser(user);
+        }
+        long readVersion = user.version;
+        user.calculateScore();
+        user.version = readVersion + 1;
+        return guests.replace(user, readVersion);
+    }
 
+    /**
+     * Read-modify-write for gameplay. change mutates the freshly read player and returns
+     * false if there is nothing to save. If the stored user moved on in between, the
+     * change is applied again to the newer copy; after MAX_SAVE_ATTEMPTS a
+     * VersionConflict is thrown. Unknown ids become guests if createGuest is set, unless
+     * the guest already registered (GuestSessions.PromotedException).
+     */
+    private User updatePlayer(String userId, boolean createGuest, Predicate<User> change) {
+        for (int attempt = 1;; attempt++) {
+            User user = guests.get(userId);
+            boolean guest = user != null;
+            if (user == null)
+                user = findUser(userId);
+            if (user == null) {
+                if (!createGuest)
+                    throw new RuntimeException("User not found");
+                user = guests.create(userId);
+                if (user == null)
+                    throw new GuestSessions.PromotedException(userId);
+                guest = true;
+            }
+
+            if (!change.test(user) || savePlayer(user, guest)) {
+                return user;
+            }
+            if (attempt == MAX_SAVE_ATTEMPTS) {
+                User latest = findUser(userId);
+                if (latest == null)
+                    throw new RuntimeException("User not found");
+                throw new VersionConflict(latest);
+            }
+        }
+    }
+
+    /**
+     * Applies only the fields present in the patch (name, appearance.*, stats.*, inventory)
+     * and writes just the ones that actually changed with $set.
+     *
+     * If the patch carries "version", the write only lands if the stored document is still
+     * at that version; otherwise a VersionConflict with the current copy is thrown.
+     * Without "version" the patch wins over whatever was saved meanwhile: if another write
+     * lands between the read and the update, the patch is re-applied to the newer copy
+     * (up to MAX_SAVE_ATTEMPTS times, like gameplay saves).
+     * Returns null if the user doesn't exist.
+     */
+    public User patchUser(String userId, JsonNode patch) {
+        boolean versioned = patch.hasNonNull("version");
+        for (int attempt = 1;; attempt++) {
+            User current = findUser(userId);
+            if (current == null)
+                return null;
+
+            if (versioned && patch.get("version").asLong() != current.version) {
+                throw new VersionConflict(current);
+            }
+
+            User updated = current.copy();
+            applyPatch(updated, patch);
+            updated.calculateScore();
+
+            List<Bson> changes = diff(current, updated);
+            if (changes.isEmpty()) {
+                return current; // nothing to write
+            }
+            changes.add(Updates.inc("version", 1L));
+
+            // Guarded either way: overallScore is derived from the stats we read
+            long expected = current.version;
+            UpdateResult result = mongo.call(() -> userCollection.updateOne(
+                    Filters.and(idFilter(userId), versionFilter(expected)),
+                    Updates.combine(changes)));
+            if (result.getMatchedCount() == 0) {
+                if (!versioned && attempt < MAX_SAVE_ATTEMPTS) {
+                    continue;
+                }
+                User latest = findUser(userId);
+                if (latest == null)
+                    return null;
+                throw new VersionConflict(latest);
+            }
+
+            updated.version = expected + 1;
+            profiles.put(updated);
+            scoreListener.accept(updated);
+            coherence.invalidate(CacheCoherence.PROFILE, updated.id, updated.overallScore);
+            return updated;
+        }
+    }
+
+    private void applyPatch(User user, JsonNode patch) {
+        if (patch.hasNonNull("name")) {
+            user.name = patch.get("name").asText();
+        }
+        JsonNode appearance = patch.path("appearance");
+        if (appearance.isObject()) {
+            if (user.appearance == null) {
+                user.appearance = new User.Appearance();
+            }
+            user.appearance.outfit = appearance.path("outfit").asText(user.appearance.outfit);
+            user.appearance.hat = appearance.path("hat").asText(user.appearance.hat);
+            user.appearance.glasses = appearance.path("glasses").asText(user.appearance.glasses);
+            user.appearance.accessory = appearance.path("accessory").asText(user.appearance.accessory);
+        }
+        JsonNode stats = patch.path("stats");
+        if (stats.isObject()) {
+            if (user.stats == null) {
+                user.stats = new User.Stats();
+            }
+            user.stats.money = stats.path("money").asDouble(user.stats.money);
+            user.stats.financeKnowledge = stats.path("financeKnowledge").asInt(user.stats.financeKnowledge);
+            user.stats.happiness = stats.path("happiness").asInt(user.stats.happiness);
+        }
+        JsonNode inventory = patch.path("inventory");
+        if (inventory.isArray()) {
+            List<String> ids = new ArrayList<>();
+            inventory.forEach(id -> ids.add(id.asText()));
+            user.inventory = catalog().fromIds(ids);
+        }
+    }
+
+    // One $set per changed leaf, so the oplog only carries what moved
+    private List<Bson> diff(User before, User after) {
+        List<Bson> sets = new ArrayList<>();
+        if (!Objects.equals(before.name, after.name))
+            sets.add(Updates.set("name", after.name));
+        if (after.appearance != null) {
+            User.Appearance a = before.appearance != null ? before.appearance : new User.Appearance();
+            if (before.appearance == null || !Objects.equals(a.outfit, after.appearance.outfit))
+                sets.add(Updates.set("appearance.outfit", after.appearance.outfit));
+            if (before.appearance == null || !Objects.equals(a.hat, after.appearance.hat))
+                sets.add(Updates.set("appearance.hat", after.appearance.hat));
+            if (before.appearance == null || !Objects.equals(a.glasses, after.appearance.glasses))
+                sets.add(Updates.set("appearance.glasses", after.appearance.glasses));
+            if (before.appearance == null || !Objects.equals(a.accessory, after.appearance.accessory))
+                sets.add(Updates.set("appearance.accessory", after.appearance.accessory));
+        }
+        if (after.stats != null) {
+            User.Stats st = before.stats != null ? before.stats : new User.Stats();
+            if (before.stats == null || st.money != after.stats.money)
+                sets.add(Updates.set("stats.money", after.stats.money));
+            if (before.stats == null || st.financeKnowledge != after.stats.financeKnowledge)
+                sets.add(Updates.set("stats.financeKnowledge", after.stats.financeKnowledge));
+            if (before.stats == null || st.happiness != after.stats.happiness)
+                sets.add(Updates.set("stats.happiness", after.stats.happiness));
+        }
+        if (after.inventory != null && (before.inventory == null
+                || !Arrays.equals(before.inventory.toBytes(), after.inventory.toBytes())))
+            sets.add(Updates.set("inventory", after.inventory));
+        if (before.overallScore != after.overallScore)
+            sets.add(Updates.set("overallScore", after.overallScore));
+        return sets;
+    }
+
+    private static Bson versionFilter(long version) {
+        return version == 0
+                // Documents written before versioning have no field at all
+                ? Filters.or(Filters.eq("version", 0L), Filters.exists("version", false))
+                : Filters.eq("version", version);
+    }
+
+    private static Bson idFilter(String userId) {
         try {
-            // Try updating the real account using ObjectId
-            userCollection.replaceOne(Filters.eq("_id", new ObjectId(user.id)), user);
+            return Filters.eq("_id", new ObjectId(userId));
         } catch (IllegalArgumentException e) {
-            // Fallback for string-based test accounts
-            userCollection.replaceOne(Filters.eq("_id", user.id), user);
+            return Filters.eq("_id", userId);
         }
+    }
 
-        return user;
+    // Thrown when a versioned patch was based on a stale copy of the profile
+    public static class VersionConflict extends RuntimeException {
+        public final User current;
+
+        public VersionConflict(User current) {
+            super("Profile was changed elsewhere (now at version " + current.version + ")");
+            this.current = current;
+        }
+    }
+
+    // Response for /cards?since=; cards are matched by key (their _id)
+    public static class DeckDelta {
+        public long version;
+        public long since;
+        public boolean full;
+        public List<Card> added = new ArrayList<>();
+        public List<Card> changed = new ArrayList<>();
+        public List<String> removed = new ArrayList<>();
     }
 
     // --- GAMEPLAY ---
 
     public User processChoice(String userId, int situationId, int choiceIndex) {
-        // 1. Get User (or create temp if testing)
-        User user = getUser(userId);
-        if (user == null)
-            user = createUser(userId);
-
-        // 2. Get Card
-        Card card = cardCollection.find(Filters.eq("situationId", situationId)).first();
-
-        // 3. Apply Effect
-        if (card != null && choiceIndex >= 0 && choiceIndex < card.options.size()) {
-            Card.Option selectedOption = card.options.get(choiceIndex);
+        // 1. Get Card
+        Card card = getCard(situationId);
+        Card.Option selectedOption = card != null && choiceIndex >= 0 && choiceIndex < card.options.size()
+                ? card.options.get(choiceIndex)
+                : null;
+
+        // 2. Get User (unknown ids play as in-memory guests until they register) and apply the effect
+        double[] deltas = new double[3];
+        User user = updatePlayer(userId, true, player -> {
+            if (selectedOption == null) {
+                return false;
+            }
+            double moneyBefore = player.stats.money;
+            int knowledgeBefore = player.stats.financeKnowledge;
+            int happinessBefore = player.stats.happiness;
 
             // ⚠️ PASS THE NESTED STATS OBJECT
-            calculator.applyEffect(user.stats, selectedOption.effect);
-
-            // Save immediately
-            saveUser(user);
+            calculator.applyEffect(player.stats, selectedOption.effect);
+
+            deltas[0] = player.stats.money - moneyBefore;
+            deltas[1] = player.stats.financeKnowledge - knowledgeBefore;
+            deltas[2] = player.stats.happiness - happinessBefore;
+            player.history = StatHistory.append(player.history, card.situationId, player.stats);
+            return true; // Save immediately
+        });
+
+        // 3. Count it once it's saved (a retried save would otherwise count twice)
+        if (selectedOption != null) {
+            analytics.record(card.situationId, choiceIndex, deltas[0], (int) deltas[1], (int) deltas[2]);
         }
-
         return user;
     }
 
     public User buyItem(String userId, String itemId) {
-        User user = getUser(userId);
-        if (user == null)
-            throw new RuntimeException("User not found");
+        GameWardrobe item = catalog().get(itemId);
+        if (item == null)
+            throw new RuntimeException("Item not found");
 
-        // Defensive: older users might not have inventory initialized
-        if (user.inventory == null) {
-            user.inventory = new ArrayList<>();
-        }
+        return updatePlayer(userId, false, user -> {
+            // Defensive: older users might not have inventory initialized
+            if (user.inventory == null) {
+                user.inventory = new ItemSet();
+            }
+
+            // Checks
+            if (catalog().owns(user.inventory, item))
+                throw new RuntimeException("Already owned");
+            if (user.stats.money < item.price)
+                throw new RuntimeException("Not enough money");
+            if (user.stats.financeKnowledge < item.knowledgeReq)
+                throw new RuntimeException("Need more knowledge");
+
+            // Execute
+            user.stats.money -= item.price;
+            user.inventory.add(item.ordinal);
+            return true; // Persist to MongoDB (or the guest store)
+        });
+    }
 
-        GameWardrobe item = ITEM_CATALOG.get(itemId);
+    public User equipItem(String userId, String itemId) {
+        GameWardrobe item = catalog().get(itemId);
         if (item == null)
             throw new RuntimeException("Item not found");
 
-        // Checks
-        if (user.inventory.contains(itemId))
-            throw new RuntimeException("Already owned");
-        if (user.stats.money < item.price)
-            throw new RuntimeException("Not enough money");
-        if (user.stats.financeKnowledge < item.knowledgeReq)
-            throw new RuntimeException("Need more knowledge");
+        return updatePlayer(userId, false, user -> {
+            // Builtin slot defaults ("none_hat", "default_outfit"...) are always owned
+            if (!catalog().owns(user.inventory, item)) {
+                throw new RuntimeException("You don't own this item");
+            }
+
+            if (user.appearance == null) {
+                user.appearance = new User.Appearance();
+            }
+            item.slot.equip(user.appearance, itemId);
+            return true;
+        });
+    }
 
-        // Execute
-        user.stats.money -= item.price;
-        user.inventory.add(itemId);
+    // --- DECK CACHE ---
 
-        return saveUser(user); // Persist to MongoDB
+    // Startup warm-up: load the catalog and deck so the first requests don't pay for it
+    public void warmCaches() {
+        ItemCatalog.reload(MongoDB.getDatabase());
+        deck();
     }
 
-    public User equipItem(String userId, String itemId) {
-        User user = getUser(userId);
-        if (user == null)
-            throw new RuntimeException("User not found");
+    private Deck deck() {
+        Deck current = deck;
+        if (current != null) {
+            return current;
+        }
+        long generation = deckGeneration.get();
+        // Adding Sorts.ascending ensures the Year 1 Narrative (0)
+        // comes before Situation 1, and Year 2 Narrative (10.5)
+        // comes exactly after Situation 10.
+        Deck loaded = mongo.call(() -> {
+            Deck fresh = new Deck(cardCollection.find()
+                    .sort(Sorts.ascending("situationId"))
+                    .into(new ArrayList<>()));
+            fresh.version = coherence.stamp(CacheCoherence.CARDS, Deck.FORMAT, fresh.digest);
+            return fresh;
+        });
+        // Don't install a deck that an invalidation raced past while we were loading
+        if (deckGeneration.get() == generation) {
+            deck = loaded;
+            synchronized (recentDecks) {
+                recentDecks.put(loaded.version, loaded);
+            }
+        }
+        return loaded;
+    }
 
-        // Defensive: older users might not have inventory initialized
-        if (user.inventory == null) {
-            user.inventory = new ArrayList<>();
+    private Deck recentDeck(long version) {
+        synchronized (recentDecks) {
+            return recentDecks.get(version);
         }
+    }
+
+    private void invalidateDeck() {
+        deckGeneration.incrementAndGet();
+        deck = null;
+    }
+
+    // Cards without an _id (hand-inserted test data) fall back to their situation id
+    private static String key(Card card) {
+        return card._id != null ? card._id : "situation:" + card.situationId;
+    }
 
-        // Validate ownership (allow "default" or "none" items always)
-        if (!itemId.contains("default") && !itemId.contains("none") && !user.inventory.contains(itemId)) {
-            throw new RuntimeException("You don't own this item");
+    private static class Deck {
+        // Which builds can compare digests: the properties Jackson serializes for a card.
+        // Bump the scheme when hash() changes in a way the properties don't show
+        private static final String HASH_SCHEME = "sha256-64/canonical-json/1";
+        static final String FORMAT = format();
+
+        final List<Card> cards;
+        final Map<Double, Card> bySituation = new HashMap<>();
+        final Map<String, Card> byKey = new LinkedHashMap<>();
+        final String digest;
+        long version; // set from the digest before the deck is published
+
+        Deck(List<Card> cards) {
+            this.cards = Collections.unmodifiableList(cards);
+            MessageDigest deckDigest = sha256();
+            for (Card card : cards) {
+                card.hash = hash(card);
+                bySituation.put(card.situationId, card);
+                byKey.put(key(card), card);
+                deckDigest.update((key(card) + "=" + card.hash + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            this.digest = HexFormat.of().formatHex(deckDigest.digest());
         }
 
-        // Determine slot based on Catalog or ID naming convention
-        GameWardrobe item = ITEM_CATALOG.get(itemId);
+        // Insertion order follows the deck's situationId order
+        Map<String, Card> scoped(Integer year) {
+            if (year == null) {
+                return byKey;
+            }
+            Map<String, Card> scoped = new LinkedHashMap<>();
+            byKey.forEach((key, card) -> {
+                if (year.equals(card.year)) {
+                    scoped.put(key, card);
+                }
+            });
+            return scoped;
+        }
 
-        // Simple logic: if item is in catalog, use its type.
-        // If it's "none_hat", we infer type is "hat".
-        String type = (item != null) ? item.type : "";
-        if (itemId.contains("hat"))
-            type = "hat";
-        if (itemId.contains("glasses"))
-            type = "glasses";
-        if (itemId.contains("outfit"))
-            type = "outfit";
-        if (itemId.contains("accessory"))
-            type = "accessory";
+        private static String hash(Card card) {
+            try {
+                card.hash = null;
+                byte[] json = canonical.writeValueAsBytes(card);
+                // 64 bits is plenty to tell revisions of one card apart
+                return HexFormat.of().formatHex(sha256().digest(json), 0, 8);
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Card " + key(card) + " can't be hashed", e);
+            }
+        }
 
-        switch (type) {
-            case "outfit":
-                user.appearance.outfit = itemId;
-                break;
-            case "hat":
-                user.appearance.hat = itemId;
-                break;
-            case "glasses":
-                user.appearance.glasses = itemId;
-                break;
-            case "accessory":
-                user.appearance.accessory = itemId;
-                break;
+        private static String format() {
+            List<String> shape = new ArrayList<>();
+            for (Class<?> type : List.of(Card.class, Card.Option.class, Card.Effect.class)) {
+                BeanDescription bean = canonical.getSerializationConfig().introspect(canonical.constructType(type));
+                for (BeanPropertyDefinition property : bean.findProperties()) {
+                    shape.add(type.getSimpleName() + "." + property.getName() + ":" + property.getRawPrimaryType().getName());
+                }
+            }
+            Collections.sort(shape);
+            byte[] description = (HASH_SCHEME + "\n" + String.join("\n", shape)).getBytes(StandardCharsets.UTF_8);
+            return HexFormat.of().formatHex(sha256().digest(description), 0, 8);
         }
 
-        return saveUser(user);
+        private static MessageDigest sha256() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
     }
-
-}
\ No newline at end of file
+}
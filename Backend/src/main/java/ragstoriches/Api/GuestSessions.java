@@ -0,0 +1,196 @@
+package ragstoriches.Api;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import ragstoriches.User;
+
+/**
+ * Game state for players who haven't registered, kept only in memory.
+ *
+ * Anonymous visitors (the frontend's "guest_..." ids, test ids) used to get a users
+ * document on their first choice; now they live here until they go idle for the TTL
+ * or are pushed out by newer guests, and only reach Mongo if they register
+ * (AuthApi.register with their guestId). Guests are per replica, so their requests
+ * need to stick to one backend.
+ *
+ * Saves are a compare-and-set on the guest's version, like saveUser in Mongo, and ids
+ * that were promoted stay refused for the TTL, so a choice that read the guest before
+ * registration can't bring it back afterwards.
+ */
+public class GuestSessions {
+    private final int maxGuests;
+    private final long ttlMillis;
+
+    // Access-ordered, so the eldest entry is also the one idle the longest. Guarded by itself.
+    private final LinkedHashMap<String, Entry> guests = new LinkedHashMap<>(16, 0.75f, true);
+    // Promoted guest id -> when; insertion-ordered, bounded like guests. Guarded by guests.
+    private final LinkedHashMap<String, Long> promotedIds = new LinkedHashMap<>();
+
+    private final LongAdder created = new LongAdder();
+    private final LongAdder promoted = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public GuestSessions(int maxGuests, long ttlMillis) {
+        this.maxGuests = maxGuests;
+        this.ttlMillis = ttlMillis;
+    }
+
+    // --- READS ---
+
+    // A private copy of the guest, or null if the id isn't a (live) guest
+    public User get(String guestId) {
+        synchronized (guests) {
+            Entry entry = live(guestId);
+            return entry == null ? null : entry.user.copy();
+        }
+    }
+
+    public boolean contains(String guestId) {
+        synchronized (guests) {
+            return live(guestId) != null;
+        }
+    }
+
+    // --- WRITES ---
+
+    // The live guest with this id, created if there is none; null if the id was promoted
+    public User create(String guestId) {
+        long now = System.currentTimeMillis();
+        synchronized (guests) {
+            if (wasPromoted(guestId, now)) {
+                return null;
+            }
+            Entry entry = live(guestId);
+            if (entry == null) {
+                entry = new Entry(User.createDefault(guestId), now);
+                guests.put(guestId, entry);
+                created.increment();
+                sweep(now);
+            }
+            return entry.user.copy();
+        }
+    }
+
+    // Stores the guest unless it moved past expectedVersion or was promoted; false if it did.
+    // A guest that went idle or was evicted meanwhile is simply stored again
+    public boolean replace(User guest, long expectedVersion) {
+        long now = System.currentTimeMillis();
+        synchronized (guests) {
+            if (wasPromoted(guest.id, now)) {
+                return false;
+            }
+            Entry entry = live(guest.id);
+            if (entry != null && entry.user.version != expectedVersion) {
+                return false;
+            }
+            guests.put(guest.id, new Entry(guest.copy(), now));
+            sweep(now);
+            return true;
+        }
+    }
+
+    /**
+     * Called once the guest's progress has been saved as a registered account. False if
+     * the guest moved past expectedVersion meanwhile: the caller should carry the newer
+     * progress over and try again. From then on the id can't be saved or created.
+     */
+    public boolean promote(String guestId, long expectedVersion) {
+        long now = System.currentTimeMillis();
+        synchronized (guests) {
+            Entry entry = live(guestId);
+            if (entry != null && entry.user.version != expectedVersion) {
+                return false;
+            }
+            if (entry != null) {
+                guests.remove(guestId);
+                promoted.increment();
+            }
+            promotedIds.put(guestId, now);
+            sweep(now);
+            return true;
+        }
+    }
+
+    public Map<String, Object> metrics() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        synchronized (guests) {
+            m.put("active", guests.size());
+        }
+        m.put("maxGuests", maxGuests);
+        m.put("created", created.sum());
+        m.put("promoted", promoted.sum());
+        m.put("evictions", evictions.sum());
+        m.put("expirations", expirations.sum());
+        return m;
+    }
+
+    // --- INTERNALS ---
+
+    // Any access counts as activity, keeping touchedAt in step with the access order
+    private Entry live(String guestId) {
+        Entry entry = guests.get(guestId);
+        if (entry == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (now - entry.touchedAt > ttlMillis) {
+            guests.remove(guestId);
+            expirations.increment();
+            return null;
+        }
+        entry.touchedAt = now;
+        return entry;
+    }
+
+    private boolean wasPromoted(String guestId, long now) {
+        Long promotedAt = promotedIds.get(guestId);
+        return promotedAt != null && now - promotedAt <= ttlMillis;
+    }
+
+    // Drops idle guests from the eldest end, then anything over the size bound; same for promoted ids
+    private void sweep(long now) {
+        Iterator<Entry> eldest = guests.values().iterator();
+        while (eldest.hasNext()) {
+            Entry entry = eldest.next();
+            if (now - entry.touchedAt > ttlMillis) {
+                eldest.remove();
+                expirations.increment();
+            } else if (guests.size() > maxGuests) {
+                eldest.remove();
+                evictions.increment();
+            } else {
+                break;
+            }
+        }
+        Iterator<Long> oldest = promotedIds.values().iterator();
+        while (oldest.hasNext()) {
+            long promotedAt = oldest.next();
+            if (now - promotedAt > ttlMillis || promotedIds.size() > maxGuests) {
+                oldest.remove();
+            } else {
+                break;
+            }
+        }
+    }
+
+    // Thrown when a guest id is used again after it registered; the player has an account now
+    public static class PromotedException extends RuntimeException {
+        public PromotedException(String guestId) {
+            super("Guest " + guestId + " has registered; sign in to keep playing");
+        }
+    }
+
+    private static class Entry {
+        final User user;
+        long touchedAt;
+
+        Entry(User user, long touchedAt) {
+            this.user = user;
+            this.touchedAt = touchedAt;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package ragstoriches.Api;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.javalin.http.sse.SseClient;
+import ragstoriches.User;
+
+/**
+ * Keeps one shared top-N leaderboard in memory and pushes it to SSE subscribers.
+ *
+ * saveUser() only marks the board dirty when a score could move it; the board is
+ * recomputed at most once per tick and every subscriber gets the same pre-serialized
+ * frame. A subscriber that is still busy writing an older frame is never queued up:
+ * once it catches up it receives a full snapshot of the latest version instead.
+ */
+public class LeaderboardStream {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final GameApi game;
+    private final int size;
+    private final long tickMillis;
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean dirty = new AtomicBoolean(true);
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "leaderboard-tick");
+        t.setDaemon(true);
+        return t;
+    });
+    // One cheap virtual thread per busy subscriber, so a stalled socket only blocks itself
+    private final ExecutorService sender = Executors.newVirtualThreadPerTaskExecutor();
+
+    private volatile Board board = Board.EMPTY;
+
+    public LeaderboardStream(GameApi game, int size, long tickMillis) {
+        this.game = game;
+        this.size = size;
+        this.tickMillis = tickMillis;
+    }
+
+    public void start() {
+        tick();
+        ticker.scheduleWithFixedDelay(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        ticker.shutdownNow();
+        sender.shutdownNow();
+        for (Subscriber sub : subscribers) {
+            sub.client.close();
+        }
+        subscribers.clear();
+    }
+
+    // --- READS ---
+
+    // Cached copy served to GET /api/leaderboard, so polling never hits Mongo directly
+    public List<User> current() {
+        return board.users;
+    }
+
+    // --- WRITES ---
+
+    // Called from GameApi.saveUser (and AuthApi.register) with the freshly scored user
+    public void onScoreChanged(User user) {
+        if (user == null || user.id == null) {
+            return;
+        }
+        onScoreChanged(user.id, user.overallScore);
+    }
+
+    // A save on another replica, from the PROFILE event's key and score
+    public void onScoreChanged(String userId, double overallScore) {
+        Board b = board;
+        if (b.entries.size() < size || b.entries.containsKey(userId) || overallScore > b.lowestScore) {
+            dirty.set(true);
+        }
+    }
+
+    // Something changed that we can't see the score of (a scope-wide invalidation): recompute on the next tick
+    public void markDirty() {
+        dirty.set(true);
+    }
+
+    public void subscribe(SseClient client) {
+        Subscriber sub = new Subscriber(client);
+        client.keepAlive();
+        client.onClose(() -> subscribers.remove(sub));
+        subscribers.add(sub);
+        schedule(sub);
+    }
+
+    public Map<String, Object> metrics() {
+        Board b = board;
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("subscribers", subscribers.size());
+        m.put("version", b.version);
+        m.put("entries", b.entries.size());
+        return m;
+    }
+
+    // --- INTERNALS ---
+
+    private void tick() {
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+        try {
+            Board previous = board;
+            Board next = Board.build(previous, game.getLeaderboard(size));
+            if (next == null) {
+                return; // nothing visible changed
+            }
+            board = next;
+            for (Subscriber sub : subscribers) {
+                schedule(sub);
+            }
+        } catch (Exception e) {
+            // Leave the board dirty so the next tick retries
+            dirty.set(true);
+            e.printStackTrace();
+        }
+    }
+
+    private void schedule(Subscriber sub) {
+        if (sub.busy.compareAndSet(false, true)) {
+            sender.execute(() -> drain(sub));
+        }
+    }
+
+    private void drain(Subscriber sub) {
+        try {
+            Board b = board;
+            while (sub.sentVersion != b.version) {
+                String frame = sub.sentVersion == b.previousVersion ? b.diffFrame : b.snapshotFrame;
+                sub.client.sendEvent("leaderboard", frame, String.valueOf(b.version));
+                sub.sentVersion = b.version;
+                b = board;
+            }
+        } catch (Exception e) {
+            subscribers.remove(sub);
+            sub.client.close();
+            return;
+        } finally {
+            sub.busy.set(false);
+        }
+        // A new version may have landed between the last check and releasing the flag
+        if (sub.sentVersion != board.version && subscribers.contains(sub)) {
+            schedule(sub);
+        }
+    }
+
+    private static class Subscriber {
+        final SseClient client;
+        final AtomicBoolean busy = new AtomicBoolean();
+        volatile long sentVersion = 0; // version 0 is the empty board
+
+        Subscriber(SseClient client) {
+            this.client = client;
+        }
+    }
+
+    // Immutable, fully serialized view of one leaderboard version
+    private static class Board {
+        static final Board EMPTY = new Board(0, -1, List.of(), new LinkedHashMap<>(), null, null);
+
+        final long version;
+        final long previousVersion;
+        final List<User> users;
+        final Map<String, Entry> entries;
+        final double lowestScore;
+        final String snapshotFrame;
+        final String diffFrame;
+
+        Board(long version, long previousVersion, List<User> users, Map<String, Entry> entries,
+                String snapshotFrame, String diffFrame) {
+            this.version = version;
+            this.previousVersion = previousVersion;
+            this.users = users;
+            this.entries = entries;
+            this.snapshotFrame = snapshotFrame;
+            this.diffFrame = diffFrame;
+            // Entries arrive sorted by score, so the last one is the bar to clear
+            double lowest = Double.NEGATIVE_INFINITY;
+            for (Entry e : entries.values()) {
+                lowest = e.overallScore;
+            }
+            this.lowestScore = lowest;
+        }
+
+        // Returns null when the recomputed board looks exactly like the previous one
+        static Board build(Board previous, List<User> top) throws Exception {
+            List<User> users = new ArrayList<>(top.size());
+            Map<String, Entry> entries = new LinkedHashMap<>();
+            for (User u : top) {
+                users.add(u.withoutPassword());
+                entries.put(u.id, Entry.of(u));
+            }
+
+            List<Entry> upserts = new ArrayList<>();
+            for (Entry e : entries.values()) {
+                if (!e.sameAs(previous.entries.get(e.id))) {
+                    upserts.add(e);
+                }
+            }
+            List<String> removed = new ArrayList<>();
+            for (String id : previous.entries.keySet()) {
+                if (!entries.containsKey(id)) {
+                    removed.add(id);
+                }
+            }
+            List<String> order = new ArrayList<>(entries.keySet());
+            boolean reordered = !order.equals(new ArrayList<>(previous.entries.keySet()));
+            if (previous != EMPTY && upserts.isEmpty() && removed.isEmpty() && !reordered) {
+                return null;
+            }
+
+            long version = previous.version + 1;
+
+            Map<String, Object> snapshot = new HashMap<>();
+            snapshot.put("type", "snapshot");
+            snapshot.put("version", version);
+            snapshot.put("entries", new ArrayList<>(entries.values()));
+
+            Map<String, Object> diff = new HashMap<>();
+            diff.put("type", "diff");
+            diff.put("version", version);
+            diff.put("from", previous.version);
+            diff.put("order", order);
+            diff.put("upserts", upserts);
+            diff.put("removed", removed);
+
+            return new Board(version, previous.version, List.copyOf(users), entries,
+                    mapper.writeValueAsString(snapshot), mapper.writeValueAsString(diff));
+        }
+    }
+
+    // Compact row pushed over the stream (no inventory, no email, no password)
+    public static class Entry {
+        public String id;
+        public String name;
+        public double overallScore;
+        public double money;
+        public int financeKnowledge;
+        public int happiness;
+        public User.Appearance appearance;
+
+        static Entry of(User u) {
+            Entry e = new Entry();
+            e.id = u.id;
+            e.name = u.name;
+            e.overallScore = u.overallScore;
+            if (u.stats != null) {
+                e.money = u.stats.money;
+                e.financeKnowledge = u.stats.financeKnowledge;
+                e.happiness = u.stats.happiness;
+            }
+            e.appearance = u.appearance;
+            return e;
+        }
+
+        boolean sameAs(Entry other) {
+            if (other == null) {
+                return false;
+            }
+            return Objects.equals(name, other.name)
+                    && overallScore == other.overallScore
+                    && money == other.money
+                    && financeKnowledge == other.financeKnowledge
+                    && happiness == other.happiness
+                    && sameAppearance(appearance, other.appearance);
+        }
+
+        private static boolean sameAppearance(User.Appearance a, User.Appearance b) {
+            if (a == null || b == null) {
+                return a == b;
+            }
+            return Objects.equals(a.outfit, b.outfit)
+                    && Objects.equals(a.hat, b.hat)
+                    && Objects.equals(a.glasses, b.glasses)
+                    && Objects.equals(a.accessory, b.accessory);
+        }
+    }
+}
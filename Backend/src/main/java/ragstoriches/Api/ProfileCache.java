@@ -0,0 +1,184 @@
+package ragstoriches.Api;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import ragstoriches.User;
+
+/**
+ * Bounded LRU cache of user profiles for GET /profile/{userId}.
+ *
+ * Concurrent misses for the same id share one load. Writes in GameApi update the
+ * cache directly (write-through); writes on other replicas arrive as PROFILE
+ * invalidations via CacheCoherence, with the TTL as a safety net. A write or
+ * invalidation for an id detaches that id's in-flight load, so a load that raced it
+ * is returned to its callers but never installed; loads for other ids are unaffected.
+ * Callers always get their own copy, since handlers mutate the users they fetch.
+ */
+public class ProfileCache {
+    private final int maxEntries;
+    private final long ttlMillis;
+
+    // Access-ordered, so iteration starts at the least recently used entry. Guarded by itself.
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // In-flight loads; only detached (removed) while holding the entries lock
+    private final Map<String, CompletableFuture<User>> loading = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public ProfileCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+    }
+
+    // --- READS ---
+
+    public User get(String userId, Function<String, User> loader) {
+        User cached = lookup(userId);
+        if (cached != null) {
+            hits.increment();
+            return cached.copy();
+        }
+        misses.increment();
+
+        CompletableFuture<User> mine = new CompletableFuture<>();
+        CompletableFuture<User> existing = loading.putIfAbsent(userId, mine);
+        if (existing != null) {
+            coalesced.increment();
+            User shared = await(existing);
+            return shared == null ? null : shared.copy();
+        }
+
+        try {
+            User loaded = loader.apply(userId);
+            if (loaded != null) {
+                storeIfStillLoading(userId, mine, loaded.copy());
+            }
+            mine.complete(loaded);
+            return loaded == null ? null : loaded.copy();
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(userId, mine);
+        }
+    }
+
+    // --- WRITES ---
+
+    // Write-through after a successful save
+    public void put(User user) {
+        if (user == null || user.id == null) {
+            return;
+        }
+        synchronized (entries) {
+            loading.remove(user.id);
+            store(user.id, user.copy());
+        }
+    }
+
+    public void invalidate(String userId) {
+        synchronized (entries) {
+            loading.remove(userId);
+            if (entries.remove(userId) != null) {
+                invalidations.increment();
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            loading.clear();
+            invalidations.add(entries.size());
+            entries.clear();
+        }
+    }
+
+    public Map<String, Object> metrics() {
+        long h = hits.sum();
+        long m = misses.sum();
+        Map<String, Object> out = new LinkedHashMap<>();
+        synchronized (entries) {
+            out.put("size", entries.size());
+        }
+        out.put("maxEntries", maxEntries);
+        out.put("hits", h);
+        out.put("misses", m);
+        out.put("hitRate", h + m == 0 ? 0.0 : (double) h / (h + m));
+        out.put("coalescedLoads", coalesced.sum());
+        out.put("evictions", evictions.sum());
+        out.put("expirations", expirations.sum());
+        out.put("invalidations", invalidations.sum());
+        return out;
+    }
+
+    // --- INTERNALS ---
+
+    private User lookup(String userId) {
+        synchronized (entries) {
+            Entry entry = entries.get(userId);
+            if (entry == null) {
+                return null;
+            }
+            if (System.currentTimeMillis() - entry.storedAt > ttlMillis) {
+                entries.remove(userId);
+                expirations.increment();
+                return null;
+            }
+            return entry.user;
+        }
+    }
+
+    private void store(String userId, User user) {
+        synchronized (entries) {
+            entries.put(userId, new Entry(user, System.currentTimeMillis()));
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (entries.size() > maxEntries && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    // Installs a finished load unless a write or invalidation for the id detached it meanwhile
+    private void storeIfStillLoading(String userId, CompletableFuture<User> load, User user) {
+        synchronized (entries) {
+            if (loading.get(userId) == load) {
+                store(userId, user);
+            }
+        }
+    }
+
+    private static User await(CompletableFuture<User> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private static class Entry {
+        final User user;
+        final long storedAt;
+
+        Entry(User user, long storedAt) {
+            this.user = user;
+            this.storedAt = storedAt;
+        }
+    }
+}
@@ -3,33 +3,74 @@ package ragstoriches;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import io.javalin.apibuilder.ApiBuilder;
 import io.javalin.config.JavalinConfig;
+import io.javalin.http.Context;
 import ragstoriches.Api.AuthApi;
 import ragstoriches.Api.GameApi;
+import ragstoriches.Api.LeaderboardStream;
+import ragstoriches.resilience.AdaptiveLimiter;
+import ragstoriches.resilience.Bulkhead;
+import ragstoriches.resilience.Bulkheads;
 
 public class AppRouter {
+    // Long-lived streams and the metrics probe don't take a concurrency permit
+    private static final Set<String> UNLIMITED_PATHS = Set.of("/api/leaderboard/stream", "/api/metrics");
+    private static final Set<String> SHEDDABLE_PATHS = Set.of("/api/explain", "/api/explain/stream", "/api/leaderboard",
+            "/api/analytics/choices");
+    // Routes whose latency drives the adaptive limit: gameplay that always reads and writes Mongo.
+    // Cache-served reads (/cards, GET /profile) and BCrypt-bound /auth would skew the baselines.
+    private static final Set<String> SAMPLED_ROUTES = Set.of("POST /api/choose", "POST /api/shop/buy",
+            "POST /api/shop/equip", "PATCH /api/profile/{userId}", "POST /api/profile/save");
+
     private final AuthApi auth;
     private final GameApi game;
-    private final String geminiKey;
+    private final LeaderboardStream leaderboard;
+    private final Bulkheads bulkheads;
+    private final WarmUp warmUp;
+    private final AdaptiveLimiter limiter;
+    private final GeminiService gemini;
 
-    public AppRouter(AuthApi auth, GameApi game, String geminiKey) {
+    public AppRouter(AuthApi auth, GameApi game, LeaderboardStream leaderboard, Bulkheads bulkheads,
+            WarmUp warmUp, AdaptiveLimiter limiter, GeminiService gemini) {
         this.auth = auth;
         this.game = game;
-        this.geminiKey = geminiKey;
+        this.leaderboard = leaderboard;
+        this.bulkheads = bulkheads;
+        this.warmUp = warmUp;
+        this.limiter = limiter;
+        this.gemini = gemini;
     }
 
     public void setupRoutes(JavalinConfig config) {
         config.router.apiBuilder(() -> {
+            // HEALTH (for the load balancer): live = process is up, ready = warm-up finished
+            ApiBuilder.path("health", () -> {
+                ApiBuilder.get("live", ctx -> ctx.json(Map.of("status", "UP")));
+
+                ApiBuilder.get("ready", ctx -> {
+                    ctx.status(warmUp.isReady() ? 200 : 503).json(warmUp.status());
+                });
+            });
+
             ApiBuilder.path("api", () -> {
+                // LOAD SHEDDING: reject early with 503 once the adaptive limit is reached
+                ApiBuilder.before(this::admit);
+                ApiBuilder.after(this::finish);
 
                 // AUTH ROUTES
                 ApiBuilder.path("auth", () -> {
                     ApiBuilder.post("register", ctx -> {
                         RegisterRequest req = ctx.bodyAsClass(RegisterRequest.class);
                         try {
-                            ctx.json(auth.register(req.name, req.email, req.password));
+                            ctx.json(auth.register(req.name, req.email, req.password, req.guestId));
+                        } catch (Bulkhead.BulkheadFullException e) {
+                            throw e; // 503, not "email taken"
                         } catch (Exception e) {
                             ctx.status(409).result(e.getMessage());
                         }
@@ -39,6 +80,8 @@ public class AppRouter {
                         LoginRequest req = ctx.bodyAsClass(LoginRequest.class);
                         try {
                             ctx.json(auth.login(req.email, req.password));
+                        } catch (Bulkhead.BulkheadFullException e) {
+                            throw e; // 503, not "wrong password"
                         } catch (Exception e) {
                             ctx.status(401).result(e.getMessage());
                         }
@@ -46,7 +89,39 @@ public class AppRouter {
                 });
 
                 // GAME & AI ROUTES
-                ApiBuilder.get("cards", ctx -> ctx.status(200).json(game.getAllCards()));
+                // Full deck (optionally one ?year=), or with ?since=<version> only what changed.
+                // X-Deck-Version tells the client what to pass as "since" next time.
+                ApiBuilder.get("cards", ctx -> {
+                    String yearParam = ctx.queryParam("year");
+                    String sinceParam = ctx.queryParam("since");
+                    Integer year;
+                    long since;
+                    try {
+                        year = yearParam == null ? null : parseIntSafely(yearParam);
+                        since = sinceParam == null ? -1 : Long.parseLong(sinceParam.trim());
+                    } catch (NumberFormatException e) {
+                        ctx.status(400).result("year and since must be numbers");
+                        return;
+                    }
+
+                    if (sinceParam != null) {
+                        GameApi.DeckDelta delta = game.cardsSince(since, year);
+                        ctx.header("X-Deck-Version", String.valueOf(delta.version));
+                        ctx.status(200).json(delta);
+                        return;
+                    }
+
+                    // Read the version before the cards: a tag can be older than its body, never newer
+                    long version = game.deckVersion();
+                    String etag = "\"deck-" + version + (year == null ? "" : "-" + year) + "\"";
+                    ctx.header("X-Deck-Version", String.valueOf(version));
+                    ctx.header("ETag", etag);
+                    if (etag.equals(ctx.header("If-None-Match"))) {
+                        ctx.status(304);
+                        return;
+                    }
+                    ctx.status(200).json(game.getCards(year));
+                });
 
                 // Profile (simple user CRUD without auth middleware for now)
                 ApiBuilder.get("profile/{userId}", ctx -> {
@@ -59,22 +134,49 @@ public class AppRouter {
                     }
                 });
 
+                // Stats after each choice, oldest first, for the progress chart
+                ApiBuilder.get("profile/{userId}/history", ctx -> {
+                    List<StatHistory.Point> points = game.getHistory(ctx.pathParam("userId"));
+                    if (points == null) {
+                        ctx.status(404).result("User not found");
+                    } else {
+                        ctx.json(Map.of("userId", ctx.pathParam("userId"), "points", points));
+                    }
+                });
+
+                // Partial save: only the fields sent (and actually changed) are written.
+                // Send the "version" you last saw to get a 409 instead of overwriting newer stats.
+                ApiBuilder.patch("profile/{userId}", ctx -> {
+                    JsonNode patch = ctx.bodyAsClass(JsonNode.class);
+                    savePatch(ctx, ctx.pathParam("userId"), patch);
+                });
+
+                // Legacy full-profile save, now routed through the same diff.
+                // Its caller echoes the profile fetched at game start, whose version every /choose
+                // since has moved past, so the version is ignored here (last writer wins, as before).
                 ApiBuilder.post("profile/save", ctx -> {
-                    User req = ctx.bodyAsClass(User.class);
-                    User saved = game.saveUser(req);
-                    ctx.json(saved.withoutPassword());
+                    JsonNode patch = ctx.bodyAsClass(JsonNode.class);
+                    if (patch instanceof ObjectNode fields) {
+                        fields.remove("version");
+                    }
+                    savePatch(ctx, patch.path("id").asText(null), patch);
                 });
 
-                // Leaderboard
+                // Leaderboard (served from the shared in-memory board, never sorted per request)
                 ApiBuilder.get("leaderboard", ctx -> {
-                    ctx.json(game.getLeaderboard());
+                    ctx.json(leaderboard.current());
                 });
 
+                // Live leaderboard: one snapshot on connect, then compact diffs per tick
+                ApiBuilder.sse("leaderboard/stream", leaderboard::subscribe);
+
                 // Shop routes
                 ApiBuilder.get("shop/catalog", ctx -> {
+                ItemCatalog catalog = game.catalog();
                 List<Map<String, Object>> items = new ArrayList<>();
-                for (GameWardrobe item : GameApi.ITEM_CATALOG.values()) {
+                for (GameWardrobe item : catalog.values()) {
                 items.add(Map.of(
+                    "ordinal", item.ordinal,
                     "id", item.id,
                     "name", item.name,
                     "type", item.type,
@@ -83,18 +185,21 @@ public class AppRouter {
                     "description", item.description != null ? item.description : ""));
                 }
             // Explicitly command Javalin to set a 200 OK status
+                ctx.header("X-Catalog-Version", String.valueOf(catalog.version()));
                 ctx.status(200).json(items);
                 });
 
                 ApiBuilder.post("shop/buy", ctx -> {
                     ShopRequest req = ctx.bodyAsClass(ShopRequest.class);
                     User updated = game.buyItem(req.userId, req.itemId);
+                    markGuest(ctx, updated);
                     ctx.json(updated.withoutPassword());
                 });
 
                 ApiBuilder.post("shop/equip", ctx -> {
                     ShopRequest req = ctx.bodyAsClass(ShopRequest.class);
                     User updated = game.equipItem(req.userId, req.itemId);
+                    markGuest(ctx, updated);
                     ctx.json(updated.withoutPassword());
                 });
 
@@ -115,7 +220,10 @@ public class AppRouter {
                         int choiceIndex = parseIntSafely(choiceIndexRaw);
 
                         User updatedUser = game.processChoice(userId, situationId, choiceIndex);
+                        markGuest(ctx, updatedUser);
                         ctx.json(updatedUser.withoutPassword());
+                    } catch (Bulkhead.BulkheadFullException | GameApi.VersionConflict e) {
+                        throw e;
                     } catch (Exception e) {
                         e.printStackTrace();
                         ctx.status(400).result("Invalid choose payload: " + e.getMessage());
@@ -124,18 +232,118 @@ public class AppRouter {
 
                 ApiBuilder.post("explain", ctx -> {
                     ExplainRequest req = ctx.bodyAsClass(ExplainRequest.class);
-                    String explanation = GeminiService.callGemini(req, geminiKey);
+                    String explanation = gemini.callGemini(req);
                     ctx.json(Map.of("explanation", explanation));
                 });
+
+                // Same coaching, streamed: "chunk" events with {text} as Gemini produces them, then "done".
+                // GET with query params (situationTitle, choiceText, impact, quality) so EventSource can call it.
+                ApiBuilder.sse("explain/stream", client -> {
+                    ExplainRequest req = new ExplainRequest();
+                    req.situationTitle = client.ctx().queryParam("situationTitle");
+                    req.choiceText = client.ctx().queryParam("choiceText");
+                    req.impact = client.ctx().queryParam("impact");
+                    req.quality = client.ctx().queryParam("quality");
+
+                    gemini.streamGemini(req, text -> {
+                        if (client.terminated()) {
+                            throw new GeminiService.StreamClosedException(); // stop reading upstream
+                        }
+                        client.sendEvent("chunk", Map.of("text", text));
+                    });
+                    if (client.terminated()) {
+                        return;
+                    }
+                    client.sendEvent("done", Map.of());
+                    client.close();
+                });
+
+                // Pick counts and average stat deltas per card option, from this replica's counters
+                // (all-replica totals are in the choice_rollups collection). Optional ?situationId=
+                ApiBuilder.get("analytics/choices", ctx -> {
+                    String situationParam = ctx.queryParam("situationId");
+                    Double situationId;
+                    try {
+                        situationId = situationParam == null ? null : Double.parseDouble(situationParam.trim());
+                    } catch (NumberFormatException e) {
+                        ctx.status(400).result("situationId must be a number");
+                        return;
+                    }
+                    ctx.json(game.choiceAnalytics().snapshot(situationId));
+                });
+
+                // Operational metrics (bulkheads, the adaptive API limit, leaderboard stream, caches, Gemini health)
+                ApiBuilder.get("metrics", ctx -> {
+                    ctx.json(Map.of(
+                            "bulkheads", bulkheads.metrics(),
+                            "limiter", limiter.metrics(),
+                            "leaderboard", leaderboard.metrics(),
+                            "profileCache", game.profileCache().metrics(),
+                            "choiceAnalytics", game.choiceAnalytics().metrics(),
+                            "guests", game.guestSessions().metrics(),
+                            "gemini", gemini.metrics()));
+                });
             });
         });
     }
 
+    private void admit(Context ctx) {
+        String path = ctx.path();
+        if (UNLIMITED_PATHS.contains(path)) {
+            return;
+        }
+        AdaptiveLimiter.Priority priority = SHEDDABLE_PATHS.contains(path)
+                ? AdaptiveLimiter.Priority.SHEDDABLE
+                : AdaptiveLimiter.Priority.CRITICAL;
+        if (!limiter.tryAcquire(priority)) {
+            throw new AdaptiveLimiter.LimitExceededException(priority);
+        }
+        ctx.attribute("limiterStart", System.nanoTime());
+    }
+
+    private void finish(Context ctx) {
+        Long start = ctx.attribute("limiterStart");
+        if (start == null) {
+            return; // never admitted (unlimited path or shed)
+        }
+        // Guests play from memory, so their latency says nothing about Mongo
+        String route = ctx.method().name() + " " + ctx.endpointHandlerPath();
+        boolean sample = SAMPLED_ROUTES.contains(route) && ctx.attribute("guestPlayer") == null;
+        limiter.release(System.nanoTime() - start, sample ? route : null);
+    }
+
+    private void markGuest(Context ctx, User user) {
+        if (game.guestSessions().contains(user.id)) {
+            ctx.attribute("guestPlayer", true);
+        }
+    }
+
+    private void savePatch(Context ctx, String userId, JsonNode patch) {
+        if (userId == null || userId.isBlank()) {
+            ctx.status(400).result("Missing user id");
+            return;
+        }
+        try {
+            User saved = game.patchUser(userId, patch);
+            if (saved == null) {
+                ctx.status(404).result("User not found");
+            } else {
+                ctx.json(saved.withoutPassword());
+            }
+        } catch (GameApi.VersionConflict e) {
+            ctx.status(409).json(Map.of(
+                    "error", e.getMessage(),
+                    "version", e.current.version,
+                    "user", e.current.withoutPassword()));
+        }
+    }
+
     // --- Data Transfer Objects (DTOs) ---
     public static class RegisterRequest {
         public String name;
         public String email;
         public String password;
+        public String guestId; // optional: keep the progress made while playing as a guest
     }
 
     public static class LoginRequest {
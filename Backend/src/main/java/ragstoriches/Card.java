@@ -3,6 +3,7 @@ package ragstoriches;
 import java.util.List;
 import org.bson.BsonType;
 import org.bson.codecs.pojo.annotations.BsonId;
+import org.bson.codecs.pojo.annotations.BsonIgnore;
 import org.bson.codecs.pojo.annotations.BsonRepresentation;
 
 public class Card {
@@ -21,6 +22,10 @@ public class Card {
     public String scenario;
     public List<Option> options;
 
+    // Content hash, computed when the deck is loaded (not stored) so clients can sync only changed cards
+    @BsonIgnore
+    public String hash;
+
     public Card() {}
 
     public static class Option {
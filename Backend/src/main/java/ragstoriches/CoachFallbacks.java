@@ -0,0 +1,95 @@
+package ragstoriches;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Canned coaching lines served while Gemini is unavailable.
+ *
+ * One explanation is precomputed per card option from its effect symbols, keyed by
+ * the scenario and choice text the frontend sends with /explain. Anything not in
+ * the deck gets a generic line based on the choice quality.
+ */
+public class CoachFallbacks {
+    private static final String PREFIX = "Coach is offline right now, so here's the quick version: ";
+
+    private final Map<String, String> byChoice;
+
+    private CoachFallbacks(Map<String, String> byChoice) {
+        this.byChoice = byChoice;
+    }
+
+    public static CoachFallbacks fromDeck(List<Card> cards) {
+        Map<String, String> byChoice = new HashMap<>();
+        for (Card card : cards) {
+            if (card.options == null) {
+                continue;
+            }
+            for (Card.Option option : card.options) {
+                if (option.text != null) {
+                    byChoice.put(key(card.scenario, option.text), describe(option));
+                }
+            }
+        }
+        return new CoachFallbacks(byChoice);
+    }
+
+    public String explain(AppRouter.ExplainRequest req) {
+        String effects = byChoice.get(key(req.situationTitle, req.choiceText));
+        boolean best = req.quality != null && "best".equals(req.quality.trim().toLowerCase());
+        String verdict = best
+                ? "That's a financially smart move, nice work!"
+                : "It's not the strongest option, so think about which choice would protect your money and your future.";
+        return PREFIX + (effects == null ? "" : effects + " ") + verdict;
+    }
+
+    // --- HELPERS ---
+
+    private static String describe(Card.Option option) {
+        Card.Effect effect = option.effect;
+        if (effect == null) {
+            return "Choosing \"" + option.text + "\" doesn't change much.";
+        }
+        List<String> parts = new ArrayList<>();
+        addPart(parts, direction(effect.money), "helps your wallet", "costs you money");
+        addPart(parts, direction(effect.financeKnowledge), "builds your money know-how", "skips a chance to learn about money");
+        addPart(parts, direction(effect.happiness), "makes you happier", "takes a toll on your happiness");
+        if (parts.isEmpty()) {
+            return "Choosing \"" + option.text + "\" doesn't change much.";
+        }
+        return "Choosing \"" + option.text + "\" " + String.join(", ", parts) + ".";
+    }
+
+    private static void addPart(List<String> parts, int direction, String up, String down) {
+        if (direction > 0) {
+            parts.add(up);
+        } else if (direction < 0) {
+            parts.add(down);
+        }
+    }
+
+    // Effects are either symbols ("++", "--") or explicit amounts ("-2000")
+    private static int direction(String value) {
+        if (value == null || value.isBlank()) {
+            return 0;
+        }
+        String v = value.trim();
+        if (v.matches("^\\++$")) {
+            return 1;
+        }
+        if (v.matches("^-+$")) {
+            return v.length() > 1 ? -1 : 0; // a single "-" is neutral in RagsToRichesCalculator
+        }
+        try {
+            return (int) Math.signum(Double.parseDouble(v));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String key(String scenario, String choiceText) {
+        return (scenario == null ? "" : scenario.trim()) + "\n" + (choiceText == null ? "" : choiceText.trim());
+    }
+}
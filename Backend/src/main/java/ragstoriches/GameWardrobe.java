@@ -1,18 +1,23 @@
 package ragstoriches;
 
 public class GameWardrobe {
+    public int ordinal; // Stable bit position in ItemSet; never reuse a retired ordinal
     public String id;
     public String description;
     public String name;
-    public String type; // outfit, hat, glasses, accessory
+    public ItemSlot slot;
+    public String type; // outfit, hat, glasses, accessory (slot.key, kept for the frontend)
     public double price;
     public int knowledgeReq; // Optional: Min knowledge needed to buy
+    public boolean builtin; // Slot defaults like "none_hat": always owned, never sold
 
-    public GameWardrobe(String id, String name, String type, double price, int knowledgeReq) {
+    public GameWardrobe(int ordinal, String id, String name, ItemSlot slot, double price, int knowledgeReq) {
+        this.ordinal = ordinal;
         this.id = id;
         this.name = name;
-        this.type = type;
+        this.slot = slot;
+        this.type = slot.key;
         this.price = price;
         this.knowledgeReq = knowledgeReq;
     }
-}
\ No newline at end of file
+}
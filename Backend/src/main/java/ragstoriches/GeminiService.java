@@ -1,54 +1,117 @@
 package ragstoriches;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import ragstoriches.resilience.Bulkhead;
+import ragstoriches.resilience.CircuitBreaker;
+import ragstoriches.resilience.LatencyTracker;
+
+/**
+ * Calls Gemini for /explain coaching.
+ *
+ * Every call has an overall deadline (requestTimeoutMs, response body included) and
+ * goes through a circuit breaker: while Gemini keeps failing, requests skip the upstream entirely and get a
+ * canned explanation for the card (see CoachFallbacks). With hedging on, a slow
+ * generateContent call gets a second identical request after the recent p95 latency
+ * and whichever answers first wins.
+ */
 public class GeminiService {
+    public static final String DEFAULT_BASE_URL = "https://generativelanguage.googleapis.com/v1beta";
+    // 1. Use the stable Flash model
+    private static final String MODEL = "gemini-2.5-flash";
+
+    // Hedge delay bounds: never hedge sooner than this, and use the default until there are enough samples
+    private static final long MIN_HEDGE_DELAY_MS = 250;
+    private static final long DEFAULT_HEDGE_DELAY_MS = 3000;
+    private static final int MIN_HEDGE_SAMPLES = 20;
+
     private static final ObjectMapper mapper = new ObjectMapper();
-    private static final HttpClient client = HttpClient.newHttpClient();
 
-    public static String callGemini(AppRouter.ExplainRequest req, String apiKey) {
-        if (apiKey == null || apiKey.isEmpty())
-            return "Coach is taking a nap (No API Key).";
+    private final String apiKey;
+    private final String baseUrl; // Overridable so a local stub server can stand in for Google
+    private final Bulkhead bulkhead;
+    private final Settings settings;
+    private final HttpClient client;
+    private final CircuitBreaker breaker;
+    // Full generateContent responses; their p95 sets the hedge delay
+    private final LatencyTracker latency = new LatencyTracker(256);
+    // Time to first chunk of a stream, which is much shorter, so kept apart
+    private final LatencyTracker streamLatency = new LatencyTracker(256);
+    private final Supplier<List<Card>> deck;
 
-        try {
-            // 1. Use the stable Flash model
-            String url = "https://generativelanguage.googleapis.com/v1beta/models/gemini-2.5-flash:generateContent?key="
-                    + apiKey;
-
-            // Tailor the coaching depending on whether this was the best choice or not
-            String quality = req.quality == null ? "" : req.quality.trim().toLowerCase();
-            String guidance;
-            if ("best".equals(quality)) {
-                guidance = "Explain in 2 sentences why this was a strong, financially smart choice.";
-            } else {
-                guidance = "Explain in 2 sentences why this choice is NOT the best option financially, " +
-                        "what hidden risks or trade-offs it has, and gently hint what a better choice would do differently.";
-            }
+    // Rebuilt whenever the deck list changes (it's replaced wholesale on reload)
+    private volatile List<Card> fallbackDeck;
+    private volatile CoachFallbacks fallbacks;
 
-            String prompt = String.format(
-                    "You are a financial coach for the game 'Rags to Riches'. Situation: %s. User chose: %s. Result: %s. %s "
-                            +
-                            "Use simple, friendly language (for teens) and be encouraging, not shaming.",
-                    req.situationTitle, req.choiceText, req.impact, guidance);
+    // Closes stream bodies that run past their deadline (HttpRequest.timeout stops at the headers)
+    private final ScheduledExecutorService deadlines = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "gemini-deadline");
+        t.setDaemon(true);
+        return t;
+    });
 
-            Map<String, Object> body = Map.of("contents", List.of(Map.of("parts", List.of(Map.of("text", prompt)))));
-            String jsonBody = mapper.writeValueAsString(body);
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder fallbacksServed = new LongAdder();
+    private final LongAdder hedgesSent = new LongAdder();
+    private final LongAdder hedgesWon = new LongAdder();
 
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(url))
-                    .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
-                    .build();
+    public GeminiService(String apiKey, String baseUrl, Bulkhead bulkhead, Settings settings, Supplier<List<Card>> deck) {
+        this.apiKey = apiKey;
+        this.baseUrl = baseUrl == null || baseUrl.isBlank() ? DEFAULT_BASE_URL : baseUrl.replaceAll("/+$", "");
+        this.bulkhead = bulkhead;
+        this.settings = settings;
+        this.deck = deck;
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(settings.connectTimeoutMs))
+                .build();
+        this.breaker = new CircuitBreaker("gemini", settings.breakerFailures, settings.breakerOpenMs);
+    }
 
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+    public String callGemini(AppRouter.ExplainRequest req) {
+        if (apiKey == null || apiKey.isEmpty())
+            return "Coach is taking a nap (No API Key).";
 
+        if (!breaker.allowRequest()) {
+            return fallback(req);
+        }
+
+        boolean reported = false;
+        try {
+            HttpRequest request = buildRequest("generateContent", req);
+
+            HttpResponse<String> response = bulkhead.callChecked(() -> send(request));
+            reported = true;
+            if (isUpstreamFailure(response.statusCode())) {
+                recordFailure();
+                return fallback(req);
+            }
+            breaker.onSuccess();
 
             Map<String, Object> resMap = mapper.readValue(response.body(), Map.class);
 
@@ -71,8 +134,300 @@ public class GeminiService {
 
             return (String) firstPart.get("text");
 
+        } catch (Bulkhead.BulkheadFullException e) {
+            // Our own queue is full, not Gemini's fault: don't count it against the breaker
+            return "Coach is helping a lot of students right now. Try again in a moment!";
+        } catch (IOException | ExecutionException | TimeoutException e) {
+            // Timeouts, refused connections and reset streams
+            reported = true;
+            recordFailure();
+            return fallback(req);
         } catch (Exception e) {
             return "Coach got lost in the data: " + e.getMessage();
+        } finally {
+            if (!reported) {
+                breaker.onAbandoned();
+            }
+        }
+    }
+
+    /**
+     * Streaming variant: calls streamGenerateContent and hands each text part to onText
+     * as soon as its chunk has been parsed. The response is a JSON array that arrives
+     * element by element, so it's read with a token parser instead of being buffered.
+     * Failures are reported through onText with the same friendly messages as callGemini.
+     * Streams aren't hedged, since a second stream would duplicate text already sent.
+     * onText throws StreamClosedException once the client has gone away, which stops
+     * reading upstream and ends the call quietly.
+     */
+    public void streamGemini(AppRouter.ExplainRequest req, Consumer<String> onText) {
+        try {
+            streamOrFallback(req, onText);
+        } catch (StreamClosedException e) {
+            // The student closed the coach panel: nothing left to send the rest of the answer (or an error) to
+        }
+    }
+
+    private void streamOrFallback(AppRouter.ExplainRequest req, Consumer<String> onText) {
+        if (apiKey == null || apiKey.isEmpty()) {
+            onText.accept("Coach is taking a nap (No API Key).");
+            return;
+        }
+
+        if (!breaker.allowRequest()) {
+            onText.accept(fallback(req));
+            return;
+        }
+
+        boolean[] sentText = { false };
+        Consumer<String> tracking = text -> {
+            sentText[0] = true;
+            onText.accept(text);
+        };
+
+        boolean reported = false;
+        try {
+            HttpRequest request = buildRequest("streamGenerateContent", req);
+
+            bulkhead.callChecked(() -> {
+                long start = System.nanoTime();
+                HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                if (isUpstreamFailure(response.statusCode())) {
+                    response.body().close();
+                    throw new IOException("Gemini returned HTTP " + response.statusCode());
+                }
+                // A body that stalls would otherwise block this permit forever: closing it fails the read
+                long remaining = settings.requestTimeoutMs - (System.nanoTime() - start) / 1_000_000;
+                ScheduledFuture<?> deadline = deadlines.schedule(() -> {
+                    timeouts.increment();
+                    closeQuietly(response.body());
+                }, Math.max(0, remaining), TimeUnit.MILLISECONDS);
+                try (InputStream body = response.body(); JsonParser parser = mapper.createParser(body)) {
+                    JsonToken first = parser.nextToken();
+                    // Time to first token is what the user waits on
+                    streamLatency.record((System.nanoTime() - start) / 1_000_000);
+                    if (first == JsonToken.START_OBJECT) {
+                        // Errors come back as a single object rather than an array of chunks
+                        forwardChunk(mapper.readTree(parser), tracking);
+                        return null;
+                    }
+                    boolean sawText = false;
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        sawText |= forwardChunk(mapper.readTree(parser), tracking);
+                    }
+                    if (!sawText) {
+                        onText.accept("Coach is speechless. Check your API key and billing status.");
+                    }
+                } finally {
+                    deadline.cancel(false);
+                }
+                return null;
+            });
+            reported = true;
+            breaker.onSuccess();
+
+        } catch (StreamClosedException e) {
+            throw e;
+        } catch (Bulkhead.BulkheadFullException e) {
+            onText.accept("Coach is helping a lot of students right now. Try again in a moment!");
+        } catch (IOException e) {
+            reported = true;
+            recordFailure();
+            // Only swap in the canned text if the student hasn't seen a partial answer
+            onText.accept(sentText[0] ? "\n\n(Coach lost the connection, sorry!)" : fallback(req));
+        } catch (Exception e) {
+            onText.accept("Coach got lost in the data: " + e.getMessage());
+        } finally {
+            if (!reported) {
+                breaker.onAbandoned();
+            }
+        }
+    }
+
+    public Map<String, Object> metrics() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("breaker", breaker.metrics());
+        m.put("latency", latency.metrics());
+        m.put("streamLatency", streamLatency.metrics());
+        m.put("failures", failures.sum());
+        m.put("timeouts", timeouts.sum());
+        m.put("fallbacksServed", fallbacksServed.sum());
+        m.put("hedging", settings.hedging);
+        m.put("hedgeDelayMs", hedgeDelayMillis());
+        m.put("hedgesSent", hedgesSent.sum());
+        m.put("hedgesWon", hedgesWon.sum());
+        return m;
+    }
+
+    // --- UPSTREAM CALLS ---
+
+    // Sends the request, hedging with a second copy if the first is slower than usual.
+    // Throws TimeoutException once requestTimeoutMs has passed without a complete response.
+    private HttpResponse<String> send(HttpRequest request) throws Exception {
+        long start = System.nanoTime();
+        long timeout = settings.requestTimeoutMs;
+        CompletableFuture<HttpResponse<String>> primary = client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+        CompletableFuture<HttpResponse<String>> hedge = null;
+        try {
+            HttpResponse<String> response;
+            if (!settings.hedging) {
+                response = primary.get(timeout, TimeUnit.MILLISECONDS);
+            } else {
+                try {
+                    response = primary.get(Math.min(hedgeDelayMillis(), timeout), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException slow) {
+                    hedgesSent.increment();
+                    hedge = client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+                    long remaining = timeout - (System.nanoTime() - start) / 1_000_000;
+                    response = firstSuccessful(primary, hedge).get(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+                    if (hedge.isDone() && !hedge.isCompletedExceptionally() && hedge.getNow(null) == response) {
+                        hedgesWon.increment();
+                    }
+                }
+            }
+            latency.record((System.nanoTime() - start) / 1_000_000);
+            return response;
+        } catch (TimeoutException e) {
+            // Counted at the deadline, so a stalling Gemini pushes the hedge delay up too
+            timeouts.increment();
+            latency.record((System.nanoTime() - start) / 1_000_000);
+            throw e;
+        } finally {
+            // Abandon whichever attempt lost
+            primary.cancel(true);
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+        }
+    }
+
+    // Completes with the first successful response, or fails once both attempts have failed
+    private static <T> CompletableFuture<T> firstSuccessful(CompletableFuture<T> a, CompletableFuture<T> b) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger failed = new AtomicInteger();
+        for (CompletableFuture<T> attempt : List.of(a, b)) {
+            attempt.whenComplete((response, error) -> {
+                if (error == null) {
+                    result.complete(response);
+                } else if (failed.incrementAndGet() == 2) {
+                    result.completeExceptionally(error);
+                }
+            });
+        }
+        return result;
+    }
+
+    private long hedgeDelayMillis() {
+        if (latency.count() < MIN_HEDGE_SAMPLES) {
+            return DEFAULT_HEDGE_DELAY_MS;
+        }
+        return Math.max(MIN_HEDGE_DELAY_MS, latency.percentile(95));
+    }
+
+    private static void closeQuietly(InputStream body) {
+        try {
+            body.close();
+        } catch (IOException ignored) {
+            // Only closing it to wake up the reader
+        }
+    }
+
+    // 429 and 5xx mean Gemini is struggling; other 4xx (bad key, bad prompt) are our problem
+    private static boolean isUpstreamFailure(int status) {
+        return status == 429 || status >= 500;
+    }
+
+    private void recordFailure() {
+        failures.increment();
+        breaker.onFailure();
+    }
+
+    // --- FALLBACKS ---
+
+    private String fallback(AppRouter.ExplainRequest req) {
+        fallbacksServed.increment();
+        return fallbacks().explain(req);
+    }
+
+    private CoachFallbacks fallbacks() {
+        List<Card> cards;
+        try {
+            cards = deck.get();
+        } catch (RuntimeException e) {
+            // Deck not loadable (e.g. Mongo down too): keep whatever we built last
+            cards = fallbackDeck == null ? List.of() : fallbackDeck;
+        }
+        CoachFallbacks current = fallbacks;
+        if (current == null || cards != fallbackDeck) {
+            current = CoachFallbacks.fromDeck(cards);
+            fallbacks = current;
+            fallbackDeck = cards;
+        }
+        return current;
+    }
+
+    // Returns true if the chunk carried any text
+    private static boolean forwardChunk(JsonNode chunk, Consumer<String> onText) {
+        if (chunk.has("error")) {
+            onText.accept("Coach says: " + chunk.path("error").path("message").asText());
+            return true;
         }
+        boolean sawText = false;
+        for (JsonNode part : chunk.path("candidates").path(0).path("content").path("parts")) {
+            String text = part.path("text").asText("");
+            if (!text.isEmpty()) {
+                onText.accept(text);
+                sawText = true;
+            }
+        }
+        return sawText;
+    }
+
+    private HttpRequest buildRequest(String method, AppRouter.ExplainRequest req) throws Exception {
+        String url = baseUrl + "/models/" + MODEL + ":" + method + "?key=" + apiKey;
+
+        Map<String, Object> body = Map.of("contents", List.of(Map.of("parts", List.of(Map.of("text", prompt(req))))));
+        String jsonBody = mapper.writeValueAsString(body);
+
+        return HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(Duration.ofMillis(settings.requestTimeoutMs))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
+                .build();
+    }
+
+    private static String prompt(AppRouter.ExplainRequest req) {
+        // Tailor the coaching depending on whether this was the best choice or not
+        String quality = req.quality == null ? "" : req.quality.trim().toLowerCase();
+        String guidance;
+        if ("best".equals(quality)) {
+            guidance = "Explain in 2 sentences why this was a strong, financially smart choice.";
+        } else {
+            guidance = "Explain in 2 sentences why this choice is NOT the best option financially, " +
+                    "what hidden risks or trade-offs it has, and gently hint what a better choice would do differently.";
+        }
+
+        return String.format(
+                "You are a financial coach for the game 'Rags to Riches'. Situation: %s. User chose: %s. Result: %s. %s "
+                        +
+                        "Use simple, friendly language (for teens) and be encouraging, not shaming.",
+                req.situationTitle, req.choiceText, req.impact, guidance);
+    }
+
+    // Thrown by a stream's text sink once there is no one left to send text to
+    public static class StreamClosedException extends RuntimeException {
+        public StreamClosedException() {
+            super("Client went away");
+        }
+    }
+
+    public static class Settings {
+        public long connectTimeoutMs = 2000;
+        // Overall deadline for one call, body included; for streams, the whole stream
+        public long requestTimeoutMs = 15000;
+        public int breakerFailures = 5;
+        public long breakerOpenMs = 30000;
+        public boolean hedging = false;
     }
-};
\ No newline at end of file
+};
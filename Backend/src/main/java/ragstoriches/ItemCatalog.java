@@ -0,0 +1,165 @@
+package ragstoriches;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+
+/**
+ * Immutable, versioned wardrobe catalog indexed by dense item ordinals.
+ *
+ * Ordinals are bit positions in every stored ItemSet, so items.json is append-only:
+ * new items take the next free ordinal and retired ones leave a gap.
+ *
+ * A live catalog can be pushed without a deploy by storing the same JSON shape as
+ * {_id: "items", version, items: [...]} in the "catalog" collection and bumping the
+ * "catalog" content version (see database.CacheCoherence).
+ */
+public class ItemCatalog {
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final String RESOURCE = "/items.json";
+    private static final int MAX_ORDINAL = 4095;
+
+    private static volatile ItemCatalog current = fromResource(RESOURCE);
+
+    private final int version;
+    private final GameWardrobe[] byOrdinal;
+    private final Map<String, GameWardrobe> byId;
+    private final List<GameWardrobe> shopItems;
+
+    private ItemCatalog(int version, GameWardrobe[] byOrdinal) {
+        this.version = version;
+        this.byOrdinal = byOrdinal;
+        Map<String, GameWardrobe> ids = new HashMap<>();
+        List<GameWardrobe> shop = new ArrayList<>();
+        for (GameWardrobe item : byOrdinal) {
+            if (item == null) {
+                continue;
+            }
+            if (ids.put(item.id, item) != null) {
+                throw new IllegalStateException("Duplicate item id in catalog: " + item.id);
+            }
+            if (!item.builtin) {
+                shop.add(item);
+            }
+        }
+        this.byId = ids;
+        this.shopItems = Collections.unmodifiableList(shop);
+    }
+
+    public static ItemCatalog get() {
+        return current;
+    }
+
+    // Swaps in the Mongo copy of the catalog if there is one, else keeps the bundled items.json
+    public static ItemCatalog reload(MongoDatabase database) {
+        Document doc = database.getCollection("catalog").find(Filters.eq("_id", "items")).first();
+        if (doc != null) {
+            try {
+                current = fromJson(mapper.readTree(doc.toJson()));
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not parse catalog document: " + e.getMessage(), e);
+            }
+        }
+        return current;
+    }
+
+    // --- LOADING ---
+
+    public static ItemCatalog fromResource(String resource) {
+        try (InputStream in = ItemCatalog.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException("Item catalog resource not found: " + resource);
+            }
+            return fromJson(mapper.readTree(in));
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read item catalog: " + e.getMessage(), e);
+        }
+    }
+
+    public static ItemCatalog fromJson(JsonNode root) {
+        int version = root.path("version").asInt(0);
+        List<GameWardrobe> items = new ArrayList<>();
+        int maxOrdinal = -1;
+        for (JsonNode node : root.path("items")) {
+            int ordinal = node.path("ordinal").asInt(-1);
+            if (ordinal < 0 || ordinal > MAX_ORDINAL) {
+                throw new IllegalStateException("Item ordinal out of range: " + node);
+            }
+            GameWardrobe item = new GameWardrobe(
+                    ordinal,
+                    node.path("id").asText(),
+                    node.path("name").asText(),
+                    ItemSlot.fromKey(node.path("slot").asText()),
+                    node.path("price").asDouble(0),
+                    node.path("knowledgeReq").asInt(0));
+            item.description = node.hasNonNull("description") ? node.get("description").asText() : null;
+            item.builtin = node.path("builtin").asBoolean(false);
+            items.add(item);
+            maxOrdinal = Math.max(maxOrdinal, ordinal);
+        }
+
+        GameWardrobe[] byOrdinal = new GameWardrobe[maxOrdinal + 1];
+        for (GameWardrobe item : items) {
+            if (byOrdinal[item.ordinal] != null) {
+                throw new IllegalStateException("Duplicate item ordinal in catalog: " + item.ordinal);
+            }
+            byOrdinal[item.ordinal] = item;
+        }
+        return new ItemCatalog(version, byOrdinal);
+    }
+
+    // --- READS ---
+
+    public int version() {
+        return version;
+    }
+
+    public GameWardrobe get(String itemId) {
+        return itemId == null ? null : byId.get(itemId);
+    }
+
+    // Items listed in the shop (builtin slot defaults are hidden)
+    public List<GameWardrobe> values() {
+        return shopItems;
+    }
+
+    public boolean owns(ItemSet inventory, GameWardrobe item) {
+        return item.builtin || (inventory != null && inventory.contains(item.ordinal));
+    }
+
+    // Item ids for an inventory, builtins included, in ordinal order
+    public List<String> ids(ItemSet inventory) {
+        List<String> result = new ArrayList<>();
+        for (GameWardrobe item : byOrdinal) {
+            if (item != null && owns(inventory, item)) {
+                result.add(item.id);
+            }
+        }
+        return result;
+    }
+
+    // Unknown ids (e.g. items removed from the catalog) are dropped
+    public ItemSet fromIds(List<String> itemIds) {
+        ItemSet set = new ItemSet();
+        if (itemIds != null) {
+            for (String id : itemIds) {
+                GameWardrobe item = byId.get(id);
+                if (item != null && !item.builtin) {
+                    set.add(item.ordinal);
+                }
+            }
+        }
+        return set;
+    }
+}
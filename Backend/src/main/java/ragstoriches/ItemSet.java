@@ -0,0 +1,81 @@
+package ragstoriches;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+/**
+ * Owned wardrobe items as a bitset over ItemCatalog ordinals.
+ *
+ * Held as a long[] in memory, stored in Mongo as packed little-endian bytes
+ * (see database.ItemSetCodec) and sent to the frontend as the usual list of item ids.
+ */
+public class ItemSet {
+    private long[] words;
+
+    public ItemSet() {
+        this.words = new long[1];
+    }
+
+    private ItemSet(long[] words) {
+        this.words = words;
+    }
+
+    public boolean contains(int ordinal) {
+        int word = ordinal >>> 6;
+        return ordinal >= 0 && word < words.length && (words[word] & (1L << ordinal)) != 0;
+    }
+
+    public void add(int ordinal) {
+        int word = ordinal >>> 6;
+        if (word >= words.length) {
+            words = Arrays.copyOf(words, word + 1);
+        }
+        words[word] |= 1L << ordinal;
+    }
+
+    public ItemSet copy() {
+        return new ItemSet(words.clone());
+    }
+
+    // --- STORAGE FORMAT ---
+
+    // Trailing zero bytes are trimmed, so a small inventory costs a byte or two
+    public byte[] toBytes() {
+        int length = words.length * 8;
+        while (length > 0 && byteAt(length - 1) == 0) {
+            length--;
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = byteAt(i);
+        }
+        return bytes;
+    }
+
+    public static ItemSet fromBytes(byte[] bytes) {
+        long[] words = new long[Math.max(1, (bytes.length + 7) / 8)];
+        for (int i = 0; i < bytes.length; i++) {
+            words[i >>> 3] |= (bytes[i] & 0xFFL) << ((i & 7) * 8);
+        }
+        return new ItemSet(words);
+    }
+
+    private byte byteAt(int index) {
+        return (byte) (words[index >>> 3] >>> ((index & 7) * 8));
+    }
+
+    // --- JSON (frontend keeps seeing inventory: string[]) ---
+
+    @JsonValue
+    public List<String> toIds() {
+        return ItemCatalog.get().ids(this);
+    }
+
+    @JsonCreator(mode = JsonCreator.Mode.DELEGATING)
+    public static ItemSet fromIds(List<String> itemIds) {
+        return ItemCatalog.get().fromIds(itemIds);
+    }
+}
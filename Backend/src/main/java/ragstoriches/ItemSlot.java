@@ -0,0 +1,41 @@
+package ragstoriches;
+
+public enum ItemSlot {
+    OUTFIT("outfit"),
+    HAT("hat"),
+    GLASSES("glasses"),
+    ACCESSORY("accessory");
+
+    // Lowercase name used by items.json and the frontend ("type" on shop items)
+    public final String key;
+
+    ItemSlot(String key) {
+        this.key = key;
+    }
+
+    public static ItemSlot fromKey(String key) {
+        for (ItemSlot slot : values()) {
+            if (slot.key.equalsIgnoreCase(key)) {
+                return slot;
+            }
+        }
+        throw new IllegalArgumentException("Unknown item slot: " + key);
+    }
+
+    public void equip(User.Appearance appearance, String itemId) {
+        switch (this) {
+            case OUTFIT:
+                appearance.outfit = itemId;
+                break;
+            case HAT:
+                appearance.hat = itemId;
+                break;
+            case GLASSES:
+                appearance.glasses = itemId;
+                break;
+            case ACCESSORY:
+                appearance.accessory = itemId;
+                break;
+        }
+    }
+}
@@ -1,14 +1,48 @@
 package ragstoriches;
 
+import java.util.List;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
 import io.github.cdimascio.dotenv.Dotenv;
 import io.javalin.Javalin;
+import io.javalin.json.JavalinJackson;
 import ragstoriches.Api.AuthApi;
+import ragstoriches.Api.ChoiceAnalytics;
 import ragstoriches.Api.GameApi;
+import ragstoriches.Api.GuestSessions;
+import ragstoriches.Api.LeaderboardStream;
+import ragstoriches.Api.ProfileCache;
+import ragstoriches.database.CacheCoherence;
 import ragstoriches.database.MongoDB;
 import ragstoriches.logic.RagsToRichesCalculator;
+import ragstoriches.resilience.AdaptiveLimiter;
+import ragstoriches.resilience.Bulkhead;
+import ragstoriches.resilience.Bulkheads;
 
 public class Main {
     private static final int DEFAULT_PORT = 8081;
+    private static final int DEFAULT_LEADERBOARD_SIZE = 10;
+    private static final long DEFAULT_LEADERBOARD_TICK_MS = 1000;
+    private static final long DEFAULT_CACHE_POLL_MS = 2000;
+    private static final int DEFAULT_MONGO_MAX_CONCURRENT = 64; // stays under the driver's pool of 100
+    private static final int DEFAULT_GEMINI_MAX_CONCURRENT = 8;
+    private static final long DEFAULT_BULKHEAD_MAX_WAIT_MS = 2000;
+    private static final int DEFAULT_API_LIMIT_INITIAL = 20;
+    private static final int DEFAULT_API_LIMIT_MAX = 200;
+    private static final int API_LIMIT_MIN = 4;
+    private static final int DEFAULT_PROFILE_CACHE_SIZE = 10_000;
+    private static final long DEFAULT_PROFILE_CACHE_TTL_MS = 5 * 60 * 1000;
+    private static final long DEFAULT_ANALYTICS_FLUSH_MS = 60_000;
+    private static final int DEFAULT_GUEST_MAX = 50_000;
+    private static final long DEFAULT_GUEST_TTL_MS = 2 * 60 * 60 * 1000;
+    private static final int WARMUP_CONNECTIONS = 8;
+    private static final int WARMUP_CALCULATOR_ROUNDS = 2000;
 
     public static void main(String[] args) {
         Dotenv dotenv = Dotenv.configure()
@@ -38,20 +72,139 @@ public class Main {
                 System.getenv("GEMINI_API_KEY"),
                 dotenv.get("GEMINI_API_KEY"));
 
+        String geminiBaseUrl = firstNonBlank(
+                System.getenv("GEMINI_BASE_URL"),
+                dotenv.get("GEMINI_BASE_URL"));
+
         int port = parsePort(firstNonBlank(
                 System.getenv("BACKEND_PORT"),
                 System.getenv("PORT"),
                 dotenv.get("BACKEND_PORT"),
                 dotenv.get("PORT")), DEFAULT_PORT);
 
+        int leaderboardSize = (int) parseLong(firstNonBlank(
+                System.getenv("LEADERBOARD_SIZE"),
+                dotenv.get("LEADERBOARD_SIZE")), DEFAULT_LEADERBOARD_SIZE);
+
+        long leaderboardTickMs = parseLong(firstNonBlank(
+                System.getenv("LEADERBOARD_TICK_MS"),
+                dotenv.get("LEADERBOARD_TICK_MS")), DEFAULT_LEADERBOARD_TICK_MS);
+
+        long cachePollMs = parseLong(firstNonBlank(
+                System.getenv("CACHE_POLL_MS"),
+                dotenv.get("CACHE_POLL_MS")), DEFAULT_CACHE_POLL_MS);
+
+        // Java 21: run each request on its own virtual thread instead of Jetty's platform pool
+        boolean useVirtualThreads = !"false".equalsIgnoreCase(firstNonBlank(
+                System.getenv("USE_VIRTUAL_THREADS"),
+                dotenv.get("USE_VIRTUAL_THREADS")));
+
+        long bulkheadMaxWaitMs = parseLong(firstNonBlank(
+                System.getenv("BULKHEAD_MAX_WAIT_MS"),
+                dotenv.get("BULKHEAD_MAX_WAIT_MS")), DEFAULT_BULKHEAD_MAX_WAIT_MS);
+
+        Bulkheads bulkheads = new Bulkheads(
+                new Bulkhead("mongo", (int) parseLong(firstNonBlank(
+                        System.getenv("MONGO_MAX_CONCURRENT"),
+                        dotenv.get("MONGO_MAX_CONCURRENT")), DEFAULT_MONGO_MAX_CONCURRENT), bulkheadMaxWaitMs),
+                new Bulkhead("gemini", (int) parseLong(firstNonBlank(
+                        System.getenv("GEMINI_MAX_CONCURRENT"),
+                        dotenv.get("GEMINI_MAX_CONCURRENT")), DEFAULT_GEMINI_MAX_CONCURRENT), bulkheadMaxWaitMs),
+                new Bulkhead("password", (int) parseLong(firstNonBlank(
+                        System.getenv("PASSWORD_MAX_CONCURRENT"),
+                        dotenv.get("PASSWORD_MAX_CONCURRENT")), Runtime.getRuntime().availableProcessors()),
+                        bulkheadMaxWaitMs));
+
+        AdaptiveLimiter limiter = new AdaptiveLimiter(
+                (int) parseLong(firstNonBlank(
+                        System.getenv("API_LIMIT_INITIAL"),
+                        dotenv.get("API_LIMIT_INITIAL")), DEFAULT_API_LIMIT_INITIAL),
+                API_LIMIT_MIN,
+                (int) parseLong(firstNonBlank(
+                        System.getenv("API_LIMIT_MAX"),
+                        dotenv.get("API_LIMIT_MAX")), DEFAULT_API_LIMIT_MAX));
+
+        ProfileCache profiles = new ProfileCache(
+                (int) parseLong(firstNonBlank(
+                        System.getenv("PROFILE_CACHE_SIZE"),
+                        dotenv.get("PROFILE_CACHE_SIZE")), DEFAULT_PROFILE_CACHE_SIZE),
+                parseLong(firstNonBlank(
+                        System.getenv("PROFILE_CACHE_TTL_MS"),
+                        dotenv.get("PROFILE_CACHE_TTL_MS")), DEFAULT_PROFILE_CACHE_TTL_MS));
+
+        // Gemini timeouts and circuit breaker; defaults live in GeminiService.Settings
+        GeminiService.Settings geminiSettings = new GeminiService.Settings();
+        geminiSettings.connectTimeoutMs = parseLong(firstNonBlank(
+                System.getenv("GEMINI_CONNECT_TIMEOUT_MS"),
+                dotenv.get("GEMINI_CONNECT_TIMEOUT_MS")), geminiSettings.connectTimeoutMs);
+        geminiSettings.requestTimeoutMs = parseLong(firstNonBlank(
+                System.getenv("GEMINI_REQUEST_TIMEOUT_MS"),
+                dotenv.get("GEMINI_REQUEST_TIMEOUT_MS")), geminiSettings.requestTimeoutMs);
+        geminiSettings.breakerFailures = (int) parseLong(firstNonBlank(
+                System.getenv("GEMINI_BREAKER_FAILURES"),
+                dotenv.get("GEMINI_BREAKER_FAILURES")), geminiSettings.breakerFailures);
+        geminiSettings.breakerOpenMs = parseLong(firstNonBlank(
+                System.getenv("GEMINI_BREAKER_OPEN_MS"),
+                dotenv.get("GEMINI_BREAKER_OPEN_MS")), geminiSettings.breakerOpenMs);
+        geminiSettings.hedging = "true".equalsIgnoreCase(firstNonBlank(
+                System.getenv("GEMINI_HEDGE"),
+                dotenv.get("GEMINI_HEDGE")));
+
+        GuestSessions guests = new GuestSessions(
+                (int) parseLong(firstNonBlank(
+                        System.getenv("GUEST_MAX"),
+                        dotenv.get("GUEST_MAX")), DEFAULT_GUEST_MAX),
+                parseLong(firstNonBlank(
+                        System.getenv("GUEST_TTL_MS"),
+                        dotenv.get("GUEST_TTL_MS")), DEFAULT_GUEST_TTL_MS));
+
+        long analyticsFlushMs = parseLong(firstNonBlank(
+                System.getenv("ANALYTICS_FLUSH_MS"),
+                dotenv.get("ANALYTICS_FLUSH_MS")), DEFAULT_ANALYTICS_FLUSH_MS);
+
         MongoDB.init(mongoUri);
 
-        AuthApi auth = new AuthApi(jwtSecret);
-        GameApi game = new GameApi(new RagsToRichesCalculator());
+        CacheCoherence coherence = new CacheCoherence(MongoDB.getDatabase(), cachePollMs);
+        ChoiceAnalytics analytics = new ChoiceAnalytics(MongoDB.getDatabase(), analyticsFlushMs);
+
+        RagsToRichesCalculator calculator = new RagsToRichesCalculator();
+        AuthApi auth = new AuthApi(jwtSecret, bulkheads.mongo, bulkheads.password, guests, coherence);
+        GameApi game = new GameApi(calculator, coherence, bulkheads.mongo, profiles, analytics, guests);
+        GeminiService gemini = new GeminiService(geminiKey, geminiBaseUrl, bulkheads.gemini, geminiSettings,
+                game::getAllCards);
+
+        LeaderboardStream leaderboard = new LeaderboardStream(game, leaderboardSize, leaderboardTickMs);
+        game.setScoreListener(leaderboard::onScoreChanged);
+        auth.setScoreListener(leaderboard::onScoreChanged);
+        coherence.listenWithScore(CacheCoherence.PROFILE, (userId, score) -> {
+            if (userId == null || score == null) {
+                leaderboard.markDirty();
+            } else {
+                leaderboard.onScoreChanged(userId, score);
+            }
+        });
+
+        JavalinJackson jsonMapper = new JavalinJackson(JavalinJackson.defaultMapper(), useVirtualThreads);
+
+        // Everything the first requests would otherwise pay for, in order
+        WarmUp warmUp = new WarmUp()
+                .step("mongo-pool", () -> MongoDB.openConnections(WARMUP_CONNECTIONS))
+                .step("catalog-and-deck", game::warmCaches)
+                .step("cache-coherence", coherence::start)
+                .step("leaderboard", leaderboard::start)
+                .step("serialization", () -> warmSerialization(game, jsonMapper))
+                .step("calculator", () -> warmCalculator(game, calculator));
 
         Javalin app = Javalin.create(config -> {
-            config.bundledPlugins.enableCors(cors -> cors.addRule(rule -> rule.anyHost()));
-            new AppRouter(auth, game, geminiKey).setupRoutes(config);
+            config.useVirtualThreads = useVirtualThreads;
+            config.jsonMapper(jsonMapper);
+            config.bundledPlugins.enableCors(cors -> cors.addRule(rule -> {
+                rule.anyHost();
+                // Let the browser read the deck version used for /api/cards?since=
+                rule.exposeHeader("X-Deck-Version");
+                rule.exposeHeader("ETag");
+            }));
+            new AppRouter(auth, game, leaderboard, bulkheads, warmUp, limiter, gemini).setupRoutes(config);
         });
 
         app.exception(Exception.class, (e, ctx) -> {
@@ -61,9 +214,65 @@ public class Main {
             }
         });
 
+        // A saturated dependency is a temporary condition, not a server bug
+        app.exception(Bulkhead.BulkheadFullException.class, (e, ctx) -> {
+            ctx.status(503).header("Retry-After", "1").result(e.getMessage());
+        });
+
+        app.exception(AdaptiveLimiter.LimitExceededException.class, (e, ctx) -> {
+            ctx.status(503).header("Retry-After", "1").result(e.getMessage());
+        });
+
+        // A gameplay save kept losing the race to other writers; the client can simply retry
+        app.exception(GameApi.VersionConflict.class, (e, ctx) -> {
+            ctx.status(409).result(e.getMessage());
+        });
+
+        // The guest id became an account; the client should switch to it
+        app.exception(GuestSessions.PromotedException.class, (e, ctx) -> {
+            ctx.status(409).result(e.getMessage());
+        });
+
         app.start("0.0.0.0", port);
-        Runtime.getRuntime().addShutdownHook(new Thread(app::stop));
-        System.out.println("Backend is listening on http://localhost:" + port + "/api/");
+        analytics.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            app.stop();
+            leaderboard.stop();
+            analytics.stop();
+            coherence.stop();
+        }));
+        System.out.println("Backend is listening on http://localhost:" + port + "/api/ (warming up)");
+
+        warmUp.run();
+    }
+
+    // Touches the BSON POJO codecs and Jackson serializers for the hot response types
+    private static void warmSerialization(GameApi game, JavalinJackson jsonMapper) {
+        User sample = User.createDefault("warmup");
+        Codec<User> userCodec = MongoDB.getDatabase().getCodecRegistry().get(User.class);
+        BsonDocument doc = new BsonDocument();
+        userCodec.encode(new BsonDocumentWriter(doc), sample, EncoderContext.builder().build());
+        userCodec.decode(new BsonDocumentReader(doc), DecoderContext.builder().build());
+        MongoDB.getDatabase().getCodecRegistry().get(Card.class);
+
+        jsonMapper.toJsonString(sample, User.class);
+        jsonMapper.toJsonString(game.getAllCards(), List.class);
+        jsonMapper.toJsonString(game.catalog().values(), List.class);
+    }
+
+    // Runs every card option through the calculator enough times for the JIT to compile it
+    private static void warmCalculator(GameApi game, RagsToRichesCalculator calculator) {
+        for (int round = 0; round < WARMUP_CALCULATOR_ROUNDS; round++) {
+            for (Card card : game.getAllCards()) {
+                if (card.options == null) {
+                    continue;
+                }
+                for (Card.Option option : card.options) {
+                    User.Stats scratch = new User.Stats();
+                    calculator.applyEffect(scratch, option.effect);
+                }
+            }
+        }
     }
 
     private static String firstNonBlank(String... values) {
@@ -85,4 +294,15 @@ public class Main {
             return fallback;
         }
     }
+
+    private static long parseLong(String value, long fallback) {
+        if (value == null || value.isBlank()) {
+            return fallback;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ignored) {
+            return fallback;
+        }
+    }
 }
@@ -0,0 +1,164 @@
+package ragstoriches;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Per-player stat history for the progress chart, packed into User.history.
+ *
+ * One point per choice: the card's situationId and the stats after the choice, each
+ * stored as a zigzag varint delta from the previous point (money in whole dollars).
+ * A typical choice costs 4-6 bytes, so a multi-year playthrough stays well under
+ * MAX_BYTES. If a history does outgrow it, every other point is dropped (keeping the
+ * first and the latest), so the chart still covers the whole game at lower resolution.
+ *
+ * Arrays are never modified in place: append returns a new one, so copies of a User
+ * can share them.
+ */
+public final class StatHistory {
+    public static final int MAX_BYTES = 4096;
+    private static final byte FORMAT = 1;
+
+    private StatHistory() {
+    }
+
+    public static byte[] append(byte[] history, double situationId, User.Stats stats) {
+        List<Point> points = decode(history);
+        Point point = new Point();
+        point.situationId = situationId;
+        point.money = Math.round(stats.money);
+        point.financeKnowledge = stats.financeKnowledge;
+        point.happiness = stats.happiness;
+        points.add(point);
+
+        byte[] encoded = encode(points);
+        while (encoded.length > MAX_BYTES && points.size() > 2) {
+            points = downsample(points);
+            encoded = encode(points);
+        }
+        return encoded;
+    }
+
+    public static List<Point> decode(byte[] history) {
+        List<Point> points = new ArrayList<>();
+        if (history == null || history.length == 0) {
+            return points;
+        }
+        if (history[0] != FORMAT) {
+            throw new IllegalArgumentException("Unknown stat history format " + history[0]);
+        }
+        Reader in = new Reader(history, 1);
+        long halfSituation = 0, money = 0, knowledge = 0, happiness = 0;
+        while (in.hasMore()) {
+            halfSituation += in.readDelta();
+            money += in.readDelta();
+            knowledge += in.readDelta();
+            happiness += in.readDelta();
+
+            Point point = new Point();
+            point.situationId = halfSituation / 2.0;
+            point.money = money;
+            point.financeKnowledge = (int) knowledge;
+            point.happiness = (int) happiness;
+            points.add(point);
+        }
+        return points;
+    }
+
+    // --- ENCODING ---
+
+    private static byte[] encode(List<Point> points) {
+        Writer out = new Writer(1 + points.size() * 6);
+        out.write(FORMAT);
+        long halfSituation = 0, money = 0, knowledge = 0, happiness = 0;
+        for (Point point : points) {
+            // situationIds step by 0.5 (year narratives sit at 10.5, 20.5...), so store them doubled
+            long nextHalfSituation = Math.round(point.situationId * 2);
+            out.writeDelta(nextHalfSituation - halfSituation);
+            out.writeDelta(point.money - money);
+            out.writeDelta(point.financeKnowledge - knowledge);
+            out.writeDelta(point.happiness - happiness);
+            halfSituation = nextHalfSituation;
+            money = point.money;
+            knowledge = point.financeKnowledge;
+            happiness = point.happiness;
+        }
+        return out.toBytes();
+    }
+
+    private static List<Point> downsample(List<Point> points) {
+        List<Point> kept = new ArrayList<>(points.size() / 2 + 1);
+        for (int i = 0; i < points.size() - 1; i += 2) {
+            kept.add(points.get(i));
+        }
+        kept.add(points.get(points.size() - 1));
+        return kept;
+    }
+
+    private static class Writer {
+        private byte[] bytes;
+        private int length;
+
+        Writer(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void write(int b) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[length++] = (byte) b;
+        }
+
+        // Zigzag first, so small negative deltas stay one byte too
+        void writeDelta(long delta) {
+            long v = (delta << 1) ^ (delta >> 63);
+            while ((v & ~0x7FL) != 0) {
+                write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            write((int) v);
+        }
+
+        byte[] toBytes() {
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+
+    private static class Reader {
+        private final byte[] bytes;
+        private int position;
+
+        Reader(byte[] bytes, int position) {
+            this.bytes = bytes;
+            this.position = position;
+        }
+
+        boolean hasMore() {
+            return position < bytes.length;
+        }
+
+        long readDelta() {
+            long v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (position >= bytes.length || shift > 63) {
+                    throw new IllegalArgumentException("Truncated stat history");
+                }
+                b = bytes[position++];
+                v |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (v >>> 1) ^ -(v & 1);
+        }
+    }
+
+    public static class Point {
+        public double situationId;
+        public long money;
+        public int financeKnowledge;
+        public int happiness;
+    }
+}
@@ -1,10 +1,9 @@
 package ragstoriches;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import org.bson.codecs.pojo.annotations.BsonId;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 public class User {
     @BsonId
     public String id;
@@ -14,7 +13,10 @@ public class User {
     public Appearance appearance;
     public Stats stats;
     public double overallScore;
-    public List<String> inventory;
+    public long version; // Bumped on every write; PATCH saves must name the version they edited
+    public ItemSet inventory; // Bitset of catalog ordinals; builtin slot defaults are implied
+    @JsonIgnore
+    public byte[] history; // StatHistory-encoded; served decoded by GET /profile/{userId}/history
 
     public User() {
     }
@@ -26,13 +28,9 @@ public class User {
         u.email = email;
         u.password = hashedPassword;
         u.appearance = new Appearance();
-        u.inventory = new ArrayList<>();
+        u.inventory = new ItemSet();
         u.stats = new Stats();
         u.calculateScore();
-        u.inventory.add("default_outfit");
-        u.inventory.add("none_hat");
-        u.inventory.add("none_glasses");
-        u.inventory.add("none_accessory");
         return u;
     }
 
@@ -49,6 +47,33 @@ public class User {
         }
     }
 
+    // Deep enough copy to diff against: nested stats, appearance and inventory are cloned
+    public User copy() {
+        User u = new User();
+        u.id = id;
+        u.name = name;
+        u.email = email;
+        u.password = password;
+        u.overallScore = overallScore;
+        u.version = version;
+        u.inventory = inventory == null ? null : inventory.copy();
+        u.history = history; // never modified in place, see StatHistory
+        if (appearance != null) {
+            u.appearance = new Appearance();
+            u.appearance.outfit = appearance.outfit;
+            u.appearance.hat = appearance.hat;
+            u.appearance.glasses = appearance.glasses;
+            u.appearance.accessory = appearance.accessory;
+        }
+        if (stats != null) {
+            u.stats = new Stats();
+            u.stats.money = stats.money;
+            u.stats.financeKnowledge = stats.financeKnowledge;
+            u.stats.happiness = stats.happiness;
+        }
+        return u;
+    }
+
     // Strip password before sending to frontend
     public User withoutPassword() {
         this.password = null;
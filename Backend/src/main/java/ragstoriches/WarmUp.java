@@ -0,0 +1,87 @@
+package ragstoriches;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the startup warm-up steps and tracks readiness for /health/ready.
+ *
+ * The server starts listening before warm-up so /health/live answers right away,
+ * but the load balancer only routes traffic once every step has succeeded.
+ * A failing step (e.g. Mongo not reachable yet) is retried until it passes;
+ * steps that already passed are not repeated.
+ */
+public class WarmUp {
+    private static final long RETRY_DELAY_MS = 2000;
+
+    private final List<Step> steps = new ArrayList<>();
+    private final Map<String, Long> completedMillis = new LinkedHashMap<>();
+    private volatile boolean ready;
+    private volatile String lastError;
+
+    public WarmUp step(String name, Runnable work) {
+        steps.add(new Step(name, work));
+        return this;
+    }
+
+    // Blocks until every step has passed
+    public void run() {
+        long started = System.currentTimeMillis();
+        for (Step step : steps) {
+            while (true) {
+                long start = System.currentTimeMillis();
+                try {
+                    step.work.run();
+                    synchronized (completedMillis) {
+                        completedMillis.put(step.name, System.currentTimeMillis() - start);
+                    }
+                    break;
+                } catch (Exception e) {
+                    lastError = step.name + ": " + e.getMessage();
+                    System.err.println("Warm-up step '" + step.name + "' failed, retrying: " + e.getMessage());
+                    try {
+                        Thread.sleep(RETRY_DELAY_MS);
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+        lastError = null;
+        ready = true;
+        System.out.println("Warm-up finished in " + (System.currentTimeMillis() - started) + " ms " + completed());
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("status", ready ? "READY" : "WARMING_UP");
+        m.put("completedStepsMs", completed());
+        if (lastError != null) {
+            m.put("lastError", lastError);
+        }
+        return m;
+    }
+
+    private Map<String, Long> completed() {
+        synchronized (completedMillis) {
+            return new LinkedHashMap<>(completedMillis);
+        }
+    }
+
+    private static class Step {
+        final String name;
+        final Runnable work;
+
+        Step(String name, Runnable work) {
+            this.name = name;
+            this.work = work;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package ragstoriches.database;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import com.mongodb.CursorType;
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.CreateCollectionOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+
+/**
+ * Keeps in-process caches coherent across backend replicas using only Mongo.
+ *
+ * Content (the card deck, the item catalog) is versioned in "content_versions":
+ * a content push just $inc's {_id: "cards"} or {_id: "catalog"}, and every replica
+ * notices on its next poll and drops that cache. Per-key invalidations (one user's
+ * profile) go through the capped "cache_events" collection, which every replica
+ * tails. Listeners only hear about changes made elsewhere; local writes are
+ * expected to update their own caches directly.
+ *
+ * Per-key invalidations are published off the request thread: they are coalesced per
+ * key and written in one insertMany every PUBLISH_MILLIS, so a save costs one Mongo
+ * write, not two. Profile events carry the new score, so other replicas' leaderboards
+ * can tell whether it matters to them.
+ */
+public class CacheCoherence {
+    public static final String CARDS = "cards";
+    public static final String CATALOG = "catalog";
+    public static final String PROFILE = "profile";
+
+    private static final long EVENTS_CAP_BYTES = 1024 * 1024;
+    private static final int NAMESPACE_EXISTS = 48;
+    private static final int DUPLICATE_KEY = 11000;
+    private static final int STAMP_ATTEMPTS = 5;
+    private static final long PUBLISH_MILLIS = 50;
+    private static final int MAX_PENDING_KEYS = 10_000;
+
+    private final MongoDatabase database;
+    private final MongoCollection<Document> versions;
+    private final MongoCollection<Document> events;
+    private final long pollMillis;
+    private final String nodeId = new ObjectId().toHexString();
+
+    // Listeners receive the invalidated key (null when the whole scope is stale) and the score, if any
+    private final Map<String, List<BiConsumer<String, Double>>> listeners = new ConcurrentHashMap<>();
+    private final Map<String, Long> knownVersions = new ConcurrentHashMap<>();
+    // Invalidations waiting to be published, one per scope/key (the latest wins). Guarded by itself.
+    private final Map<String, Document> pending = new LinkedHashMap<>();
+
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "cache-version-poll");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ScheduledExecutorService publisher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "cache-event-publish");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile boolean running;
+    private Thread tailer;
+
+    public CacheCoherence(MongoDatabase database, long pollMillis) {
+        this.database = database;
+        this.versions = database.getCollection("content_versions");
+        this.events = database.getCollection("cache_events");
+        this.pollMillis = pollMillis;
+    }
+
+    public void start() {
+        ensureEventsCollection();
+        pollVersions();
+        running = true;
+        poller.scheduleWithFixedDelay(this::pollVersions, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+        publisher.scheduleWithFixedDelay(this::publishPending, PUBLISH_MILLIS, PUBLISH_MILLIS, TimeUnit.MILLISECONDS);
+        tailer = new Thread(this::tailEvents, "cache-event-tail");
+        tailer.setDaemon(true);
+        tailer.start();
+    }
+
+    public void stop() {
+        running = false;
+        poller.shutdownNow();
+        publisher.shutdownNow();
+        publishPending();
+        if (tailer != null) {
+            tailer.interrupt();
+        }
+    }
+
+    // --- READS ---
+
+    public void listen(String scope, Consumer<String> listener) {
+        listenWithScore(scope, (key, score) -> listener.accept(key));
+    }
+
+    // Same, plus the score the key was saved with (null if the event didn't carry one)
+    public void listenWithScore(String scope, BiConsumer<String, Double> listener) {
+        listeners.computeIfAbsent(scope, ignored -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    // --- WRITES ---
+
+    // Marks a content scope as changed everywhere (this replica included, on its next poll).
+    // Stamped digests describe the old content, so they go too: the next stamp records instead of bumping again
+    public long bump(String scope) {
+        Document updated = versions.findOneAndUpdate(
+                Filters.eq("_id", scope),
+                Updates.combine(Updates.inc("version", 1L), Updates.unset("digests"), Updates.unset("digest")),
+                new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+        return updated == null ? 0 : ((Number) updated.get("version")).longValue();
+    }
+
+    /**
+     * Returns the version of a scope whose loaded content has the given digest.
+     * Digests are only comparable between builds that compute them the same way, so
+     * they're stored per format: a format seen for the first time at this version
+     * records its digest without bumping. If the stored digest for our own format
+     * differs (content changed without a bump) the version is bumped first, so two
+     * replicas never report the same version for different content, and the other
+     * formats' digests are dropped. Replicas on different builds during a rolling
+     * deploy therefore share a version instead of bumping it back and forth.
+     */
+    public long stamp(String scope, String format, String digest) {
+        String field = "digests." + format;
+        for (int attempt = 0; attempt < STAMP_ATTEMPTS; attempt++) {
+            Document current = versions.find(Filters.eq("_id", scope)).first();
+            Object version = current == null ? null : current.get("version");
+            Object digests = current == null ? null : current.get("digests");
+            String stored = digests instanceof Document byFormat ? byFormat.getString(format) : null;
+            if (digest.equals(stored) && version instanceof Number number) {
+                return number.longValue();
+            }
+            // Compare-and-set on the version we just read; another replica may be stamping too
+            Bson filter = current == null
+                    ? Filters.eq("_id", scope)
+                    : Filters.and(Filters.eq("_id", scope), Filters.eq("version", version));
+            Bson update = stored == null && version instanceof Number
+                    ? Updates.set(field, digest)
+                    : Updates.combine(Updates.inc("version", 1L),
+                            Updates.set("digests", new Document(format, digest)), Updates.unset("digest"));
+            try {
+                Document updated = versions.findOneAndUpdate(filter, update,
+                        new FindOneAndUpdateOptions().upsert(current == null).returnDocument(ReturnDocument.AFTER));
+                if (updated != null) {
+                    return ((Number) updated.get("version")).longValue();
+                }
+            } catch (MongoCommandException e) {
+                if (e.getErrorCode() != DUPLICATE_KEY) {
+                    throw e;
+                }
+            }
+        }
+        throw new IllegalStateException("Could not stamp content version for " + scope);
+    }
+
+    // Tells the other replicas to drop one key (published shortly, see publishPending); local caches update themselves
+    public void invalidate(String scope, String key, Double score) {
+        Document event = new Document("scope", scope).append("key", key).append("origin", nodeId);
+        if (score != null) {
+            event.append("score", score);
+        }
+        synchronized (pending) {
+            if (pending.size() >= MAX_PENDING_KEYS) {
+                // Mongo is falling behind: one scope-wide invalidation stands in for this scope's keys
+                pending.keySet().removeIf(pendingKey -> pendingKey.startsWith(scope + "/"));
+                event = new Document("scope", scope).append("key", null).append("origin", nodeId);
+                key = null;
+            }
+            pending.put(scope + "/" + key, event);
+        }
+    }
+
+    // Tells every replica to drop a whole scope, e.g. after a batch job rewrote many profiles.
+    // Written right away and callable from a process that never start()ed, so it makes sure
+    // the capped collection exists.
+    public void invalidateAll(String scope) {
+        ensureEventsCollection();
+        events.insertOne(new Document("scope", scope).append("key", null).append("origin", nodeId));
+    }
+
+    // --- INTERNALS ---
+
+    private void pollVersions() {
+        try {
+            for (Document doc : versions.find()) {
+                String scope = doc.getString("_id");
+                Object raw = doc.get("version");
+                if (scope == null || !(raw instanceof Number)) {
+                    continue;
+                }
+                long version = ((Number) raw).longValue();
+                Long previous = knownVersions.put(scope, version);
+                if (previous != null && previous != version) {
+                    notifyListeners(scope, null, null);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Content version poll failed: " + e.getMessage());
+        }
+    }
+
+    private void publishPending() {
+        List<Document> batch;
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+        try {
+            events.insertMany(batch, new InsertManyOptions().ordered(false));
+        } catch (Exception e) {
+            // Other replicas will fall back to their cache TTLs; never fail the writes that triggered these
+            System.err.println(batch.size() + " cache invalidations not published: " + e.getMessage());
+        }
+    }
+
+    private void tailEvents() {
+        boolean resumed = false;
+        while (running) {
+            if (resumed) {
+                // We may have missed events while disconnected: drop everything keyed
+                for (String scope : listeners.keySet()) {
+                    notifyListeners(scope, null, null);
+                }
+            }
+            resumed = true;
+            try {
+                Document newest = events.find().sort(Sorts.descending("$natural")).first();
+                try (MongoCursor<Document> cursor = events
+                        .find(newest == null ? new Document() : Filters.gt("_id", newest.getObjectId("_id")))
+                        .cursorType(CursorType.TailableAwait)
+                        .iterator()) {
+                    while (running && cursor.hasNext()) {
+                        Document event = cursor.next();
+                        if (!nodeId.equals(event.getString("origin"))) {
+                            Double score = event.get("score") instanceof Number n ? n.doubleValue() : null;
+                            notifyListeners(event.getString("scope"), event.getString("key"), score);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                System.err.println("Cache event tail interrupted: " + e.getMessage());
+            }
+            sleepQuietly(pollMillis);
+        }
+    }
+
+    private void notifyListeners(String scope, String key, Double score) {
+        if (scope == null) {
+            return;
+        }
+        for (BiConsumer<String, Double> listener : listeners.getOrDefault(scope, List.of())) {
+            try {
+                listener.accept(key, score);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void ensureEventsCollection() {
+        try {
+            database.createCollection("cache_events",
+                    new CreateCollectionOptions().capped(true).sizeInBytes(EVENTS_CAP_BYTES));
+            // A tailable cursor on an empty capped collection dies immediately
+            events.insertOne(new Document("scope", "init").append("origin", nodeId));
+        } catch (MongoCommandException e) {
+            if (e.getErrorCode() != NAMESPACE_EXISTS) {
+                throw e;
+            }
+        }
+    }
+
+    private void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package ragstoriches.database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.BsonBinary;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import ragstoriches.ItemCatalog;
+import ragstoriches.ItemSet;
+
+/**
+ * Stores an ItemSet as BSON binary. Also reads the legacy array-of-item-ids
+ * layout, so old user documents migrate on their next save.
+ */
+public class ItemSetCodec implements Codec<ItemSet> {
+
+    @Override
+    public void encode(BsonWriter writer, ItemSet value, EncoderContext encoderContext) {
+        writer.writeBinaryData(new BsonBinary(value.toBytes()));
+    }
+
+    @Override
+    public ItemSet decode(BsonReader reader, DecoderContext decoderContext) {
+        if (reader.getCurrentBsonType() == BsonType.ARRAY) {
+            List<String> ids = new ArrayList<>();
+            reader.readStartArray();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                if (reader.getCurrentBsonType() == BsonType.STRING) {
+                    ids.add(reader.readString());
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.readEndArray();
+            return ItemCatalog.get().fromIds(ids);
+        }
+        return ItemSet.fromBytes(reader.readBinaryData().getData());
+    }
+
+    @Override
+    public Class<ItemSet> getEncoderClass() {
+        return ItemSet.class;
+    }
+}
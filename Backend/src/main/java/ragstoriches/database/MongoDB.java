@@ -1,8 +1,16 @@
 package ragstoriches.database;
 
+import static org.bson.codecs.configuration.CodecRegistries.fromCodecs;
 import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
 import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bson.Document;
 import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.codecs.pojo.PojoCodecProvider;
 
@@ -25,6 +33,7 @@ public class MongoDB {
         }
 
         CodecRegistry pojoCodecRegistry = fromRegistries(
+                fromCodecs(new ItemSetCodec()),
                 MongoClientSettings.getDefaultCodecRegistry(),
                 fromProviders(PojoCodecProvider.builder().automatic(true).build()));
 
@@ -37,6 +46,21 @@ public class MongoDB {
         database = mongoClient.getDatabase("RagsToRiches");
     }
 
+    // Pings on several connections at once so the pool is open before the first request
+    public static void openConnections(int count) {
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Document>> pings = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                pings.add(pool.submit(() -> getDatabase().runCommand(new Document("ping", 1))));
+            }
+            for (Future<Document> ping : pings) {
+                ping.get();
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("MongoDB ping failed: " + e.getMessage(), e);
+        }
+    }
+
     public static MongoDatabase getDatabase() {
         if (database == null) {
             throw new IllegalStateException("MongoDB.init(uri) must be called before getDatabase().");
@@ -0,0 +1,83 @@
+package ragstoriches.jobs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * Collects writes into batches and runs up to `parallelism` unordered bulkWrites at a
+ * time. add() blocks while that many batches are in flight, so a producer reading a
+ * huge file never holds more than (parallelism + 1) batches in memory.
+ */
+public class BulkLoader<T> implements AutoCloseable {
+    private final MongoCollection<T> collection;
+    private final int batchSize;
+    private final int parallelism;
+    private final Semaphore inFlight;
+    private final ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor();
+
+    private List<WriteModel<T>> batch;
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+    public BulkLoader(MongoCollection<T> collection, int batchSize, int parallelism) {
+        this.collection = collection;
+        this.batchSize = batchSize;
+        this.parallelism = parallelism;
+        this.inFlight = new Semaphore(parallelism);
+        this.batch = new ArrayList<>(batchSize);
+    }
+
+    public void add(WriteModel<T> write) throws InterruptedException {
+        batch.add(write);
+        if (batch.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    // Writes the last partial batch and waits for everything in flight
+    @Override
+    public void close() throws InterruptedException {
+        try {
+            flush();
+            inFlight.acquire(parallelism);
+            inFlight.release(parallelism);
+        } finally {
+            pool.shutdown();
+        }
+        rethrow();
+    }
+
+    private void flush() throws InterruptedException {
+        rethrow();
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<WriteModel<T>> writes = batch;
+        batch = new ArrayList<>(batchSize);
+        inFlight.acquire();
+        pool.execute(() -> {
+            try {
+                collection.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    // Stop at the first failed batch rather than ploughing on
+    private void rethrow() {
+        RuntimeException e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+}
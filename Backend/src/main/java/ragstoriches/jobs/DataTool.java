@@ -0,0 +1,200 @@
+package ragstoriches.jobs;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
+import org.mindrot.jbcrypt.BCrypt;
+
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+
+import ragstoriches.GameWardrobe;
+import ragstoriches.ItemCatalog;
+import ragstoriches.ItemSet;
+import ragstoriches.User;
+import ragstoriches.database.CacheCoherence;
+import ragstoriches.database.MongoDB;
+
+/**
+ * Backup, restore and load-test seeding from the command line:
+ *
+ *   export users|cards FILE.ndjson.gz [--batch N]
+ *   import users|cards FILE.ndjson.gz [--batch N] [--parallelism N]
+ *   generate-users COUNT [--batch N] [--parallelism N] [--seed N]
+ *
+ * e.g. mvn -q compile exec:java -Dexec.mainClass=ragstoriches.jobs.DataTool \
+ *          -Dexec.args="export users users.ndjson.gz"
+ *
+ * Everything streams in constant memory. Imports upsert by _id, so re-running one is
+ * safe. Generated users all have the password "loadtest" and emails like
+ * loadtest+42@example.com; their _id comes from that number, so generating again
+ * (with any seed) replaces the same players instead of adding duplicates.
+ */
+public class DataTool {
+    private static final List<String> COLLECTIONS = List.of("users", "cards");
+    private static final String SYNTHETIC_PASSWORD = "loadtest";
+
+    public static void main(String[] args) throws Exception {
+        String command = args.length == 0 ? "" : args[0];
+        // Positional arguments (command included) before the --options
+        int positional = switch (command) {
+            case "export", "import" -> 3;
+            case "generate-users" -> 2;
+            default -> -1;
+        };
+        if (positional < 0 || args.length < positional) {
+            usage();
+            return;
+        }
+        int batchSize = 1000;
+        int parallelism = 4;
+        long seed = 42;
+        try {
+            if (command.equals("generate-users")) {
+                Integer.parseInt(args[1]);
+            } else {
+                collection(args[1]);
+            }
+            for (int i = positional; i < args.length; i++) {
+                if (i + 1 >= args.length) {
+                    usage();
+                    return;
+                }
+                switch (args[i]) {
+                    case "--batch" -> batchSize = Integer.parseInt(args[++i]);
+                    case "--parallelism" -> parallelism = Integer.parseInt(args[++i]);
+                    case "--seed" -> seed = Long.parseLong(args[++i]);
+                    default -> {
+                        usage();
+                        return;
+                    }
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException included
+            System.err.println(e.getMessage());
+            usage();
+            return;
+        }
+
+        JobRunner.connectFromEnv();
+        MongoDatabase db = MongoDB.getDatabase();
+        long started = System.currentTimeMillis();
+        long count;
+        switch (command) {
+            case "export" -> count = export(db, collection(args[1]), Path.of(args[2]), batchSize);
+            case "import" -> count = importFile(db, collection(args[1]), Path.of(args[2]), batchSize, parallelism);
+            case "generate-users" -> count = generateUsers(db, Integer.parseInt(args[1]), batchSize, parallelism, seed);
+            default -> {
+                usage();
+                return;
+            }
+        }
+        System.out.println(command + ": " + count + " documents in " + (System.currentTimeMillis() - started) + " ms");
+        System.exit(0);
+    }
+
+    // --- COMMANDS ---
+
+    private static long export(MongoDatabase db, String collection, Path file, int batchSize) throws IOException {
+        try (OutputStream out = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(file)), 64 * 1024)) {
+            return NdjsonExport.export(db.getCollection(collection, RawBsonDocument.class), out, batchSize);
+        }
+    }
+
+    private static long importFile(MongoDatabase db, String collection, Path file, int batchSize, int parallelism)
+            throws IOException, InterruptedException {
+        long lines = 0;
+        BulkLoader<BsonDocument> loader = new BulkLoader<>(db.getCollection(collection, BsonDocument.class),
+                batchSize, parallelism);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file), 64 * 1024), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                BsonDocument document = BsonDocument.parse(line);
+                loader.add(new ReplaceOneModel<>(Filters.eq("_id", document.get("_id")), document,
+                        new ReplaceOptions().upsert(true)));
+                lines++;
+            }
+        } finally {
+            loader.close();
+        }
+        announce(db, collection);
+        return lines;
+    }
+
+    private static long generateUsers(MongoDatabase db, int count, int batchSize, int parallelism, long seed)
+            throws InterruptedException {
+        Random random = new Random(seed);
+        // One hash for everyone: BCrypt at full cost per user would dominate the run
+        String hashed = BCrypt.hashpw(SYNTHETIC_PASSWORD, BCrypt.gensalt(12));
+        List<GameWardrobe> shop = ItemCatalog.reload(db).values();
+
+        BulkLoader<User> loader = new BulkLoader<>(db.getCollection("users", User.class), batchSize, parallelism);
+        try {
+            for (int i = 0; i < count; i++) {
+                String id = UUID.nameUUIDFromBytes(("loadtest+" + i).getBytes(StandardCharsets.UTF_8)).toString();
+                User user = User.createDefault(id, "Load Test " + i, "loadtest+" + i + "@example.com", hashed);
+                // Roughly what a few years of play look like
+                user.stats.money = Math.max(0, Math.round(1000 + random.nextGaussian() * 4000));
+                user.stats.financeKnowledge = random.nextInt(60);
+                user.stats.happiness = 60 + random.nextInt(80);
+                user.inventory = new ItemSet();
+                for (GameWardrobe item : shop) {
+                    if (random.nextInt(3) == 0) {
+                        user.inventory.add(item.ordinal);
+                        item.slot.equip(user.appearance, item.id);
+                    }
+                }
+                user.calculateScore();
+                loader.add(new ReplaceOneModel<>(Filters.eq("_id", id), user, new ReplaceOptions().upsert(true)));
+            }
+        } finally {
+            loader.close();
+        }
+        announce(db, "users");
+        return count;
+    }
+
+    // --- HELPERS ---
+
+    // Running backends reload what changed underneath them
+    private static void announce(MongoDatabase db, String collection) {
+        CacheCoherence coherence = new CacheCoherence(db, 0);
+        if (collection.equals("cards")) {
+            coherence.bump(CacheCoherence.CARDS);
+        } else {
+            coherence.invalidateAll(CacheCoherence.PROFILE);
+        }
+    }
+
+    private static String collection(String name) {
+        if (!COLLECTIONS.contains(name)) {
+            throw new IllegalArgumentException("Collection must be one of " + COLLECTIONS);
+        }
+        return name;
+    }
+
+    private static void usage() {
+        System.err.println("Usage: DataTool export|import users|cards FILE.ndjson.gz [--batch N] [--parallelism N]");
+        System.err.println("       DataTool generate-users COUNT [--batch N] [--parallelism N] [--seed N]");
+    }
+}
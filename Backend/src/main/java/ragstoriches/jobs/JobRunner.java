@@ -0,0 +1,104 @@
+package ragstoriches.jobs;
+
+import java.util.Map;
+
+import io.github.cdimascio.dotenv.Dotenv;
+import ragstoriches.User;
+import ragstoriches.database.CacheCoherence;
+import ragstoriches.database.MongoDB;
+
+/**
+ * Command line entry point for batch jobs over the users collection:
+ *
+ *   mvn -q compile exec:java -Dexec.mainClass=ragstoriches.jobs.JobRunner \
+ *       -Dexec.args="season-reset --partitions 4 --batch 500 --rate 1000"
+ *
+ * Jobs: season-reset (new-semester stats and progress chart, wardrobe kept) and
+ * rescore (re-run calculateScore after the formula changes). Re-running an
+ * unfinished job resumes it; --restart starts over.
+ */
+public class JobRunner {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            usage();
+            return;
+        }
+        String jobName = args[0];
+        UserTransform transform = transformFor(jobName);
+        if (transform == null) {
+            usage();
+            return;
+        }
+
+        UserBatchJob.Settings settings = new UserBatchJob.Settings();
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--partitions" -> settings.partitions = Integer.parseInt(args[++i]);
+                case "--batch" -> settings.batchSize = Integer.parseInt(args[++i]);
+                case "--rate" -> settings.maxUsersPerSecond = Integer.parseInt(args[++i]);
+                case "--restart" -> settings.restart = true;
+                default -> {
+                    usage();
+                    return;
+                }
+            }
+        }
+
+        connectFromEnv();
+
+        long started = System.currentTimeMillis();
+        Map<String, Object> totals = new UserBatchJob(MongoDB.getDatabase(), jobName, transform, settings).run();
+        System.out.println("Finished in " + (System.currentTimeMillis() - started) + " ms: " + totals);
+
+        // Running backends drop their cached profiles and recompute the leaderboard
+        new CacheCoherence(MongoDB.getDatabase(), 0).invalidateAll(CacheCoherence.PROFILE);
+        System.exit(0);
+    }
+
+    private static UserTransform transformFor(String jobName) {
+        switch (jobName) {
+            case "season-reset":
+                return user -> {
+                    user.stats = new User.Stats();
+                    user.history = null; // last season's chart would start from the old stats
+                    return true;
+                };
+            case "rescore":
+                return user -> {
+                    double before = user.overallScore;
+                    user.calculateScore();
+                    return user.overallScore != before;
+                };
+            default:
+                return null;
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: JobRunner <season-reset|rescore> [--partitions N] [--batch N] [--rate USERS_PER_SEC] [--restart]");
+    }
+
+    // Same MONGODB_URI / MONGO_URI lookup as the server (environment first, then .env)
+    static void connectFromEnv() {
+        Dotenv dotenv = Dotenv.configure().ignoreIfMalformed().ignoreIfMissing().load();
+        String mongoUri = firstNonBlank(
+                System.getenv("MONGODB_URI"),
+                System.getenv("MONGO_URI"),
+                dotenv.get("MONGODB_URI"),
+                dotenv.get("MONGO_URI"));
+        if (mongoUri == null) {
+            throw new IllegalStateException("Missing MongoDB connection string. Set MONGODB_URI or MONGO_URI.");
+        }
+        MongoDB.init(mongoUri);
+    }
+
+    private static String firstNonBlank(String... values) {
+        for (String value : values) {
+            if (value != null && !value.isBlank()) {
+                return value;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,100 @@
+package ragstoriches.jobs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Base64;
+import java.util.Map;
+
+import org.bson.BsonBinary;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.MinimalPrettyPrinter;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+
+/**
+ * Streams a collection out as NDJSON, one document per line, without building
+ * documents or strings in between: raw BSON from the cursor goes straight into a
+ * Jackson generator. Types JSON can't express (ObjectId, 64-bit ints, dates, binary
+ * such as User.inventory) are written as MongoDB Extended JSON, so
+ * BsonDocument.parse() reads every line back to the identical document.
+ */
+public class NdjsonExport {
+    private static final JsonFactory json = new JsonFactory();
+
+    // Returns the number of documents written; the caller owns (and closes) out
+    public static long export(MongoCollection<RawBsonDocument> collection, OutputStream out, int batchSize)
+            throws IOException {
+        long count = 0;
+        try (JsonGenerator generator = json.createGenerator(out).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                MongoCursor<RawBsonDocument> cursor = collection.find().batchSize(batchSize).iterator()) {
+            generator.setPrettyPrinter(new MinimalPrettyPrinter("\n"));
+            while (cursor.hasNext()) {
+                writeValue(generator, cursor.next());
+                count++;
+            }
+            generator.writeRaw('\n');
+        }
+        return count;
+    }
+
+    private static void writeValue(JsonGenerator g, BsonValue value) throws IOException {
+        switch (value.getBsonType()) {
+            case DOCUMENT -> {
+                g.writeStartObject();
+                for (Map.Entry<String, BsonValue> field : value.asDocument().entrySet()) {
+                    g.writeFieldName(field.getKey());
+                    writeValue(g, field.getValue());
+                }
+                g.writeEndObject();
+            }
+            case ARRAY -> {
+                g.writeStartArray();
+                for (BsonValue element : value.asArray()) {
+                    writeValue(g, element);
+                }
+                g.writeEndArray();
+            }
+            case STRING -> g.writeString(value.asString().getValue());
+            case INT32 -> g.writeNumber(value.asInt32().getValue());
+            case DOUBLE -> {
+                double d = value.asDouble().getValue();
+                if (Double.isFinite(d)) {
+                    g.writeNumber(d);
+                } else {
+                    wrapped(g, "$numberDouble", Double.isNaN(d) ? "NaN" : d > 0 ? "Infinity" : "-Infinity");
+                }
+            }
+            case BOOLEAN -> g.writeBoolean(value.asBoolean().getValue());
+            case NULL -> g.writeNull();
+            case INT64 -> wrapped(g, "$numberLong", Long.toString(value.asInt64().getValue()));
+            case DECIMAL128 -> wrapped(g, "$numberDecimal", value.asDecimal128().getValue().toString());
+            case OBJECT_ID -> wrapped(g, "$oid", value.asObjectId().getValue().toHexString());
+            case DATE_TIME -> {
+                g.writeStartObject();
+                g.writeFieldName("$date");
+                wrapped(g, "$numberLong", Long.toString(value.asDateTime().getValue()));
+                g.writeEndObject();
+            }
+            case BINARY -> {
+                BsonBinary binary = value.asBinary();
+                g.writeStartObject();
+                g.writeObjectFieldStart("$binary");
+                g.writeStringField("base64", Base64.getEncoder().encodeToString(binary.getData()));
+                g.writeStringField("subType", String.format("%02x", binary.getType()));
+                g.writeEndObject();
+                g.writeEndObject();
+            }
+            default -> throw new IllegalArgumentException("Can't export BSON type " + value.getBsonType());
+        }
+    }
+
+    private static void wrapped(JsonGenerator g, String key, String text) throws IOException {
+        g.writeStartObject();
+        g.writeStringField(key, text);
+        g.writeEndObject();
+    }
+}
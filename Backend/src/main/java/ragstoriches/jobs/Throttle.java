@@ -0,0 +1,27 @@
+package ragstoriches.jobs;
+
+import java.util.concurrent.TimeUnit;
+
+// Spaces work out to at most maxPerSecond items, shared by every partition of a job
+public class Throttle {
+    private final long nanosPerItem;
+    private long nextFree = System.nanoTime(); // guarded by this
+
+    public Throttle(int maxPerSecond) {
+        this.nanosPerItem = maxPerSecond <= 0 ? 0 : 1_000_000_000L / maxPerSecond;
+    }
+
+    // Blocks until `items` more may be processed
+    public void acquire(int items) throws InterruptedException {
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long start = Math.max(nextFree, now);
+            nextFree = start + items * nanosPerItem;
+            wait = start - now;
+        }
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package ragstoriches.jobs;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonString;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.EncoderContext;
+import org.bson.conversions.Bson;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.bulk.BulkWriteResult;
+
+import ragstoriches.User;
+
+/**
+ * Applies a UserTransform to every user, for season resets and stat migrations.
+ *
+ * The users collection is split into _id ranges, and each range is streamed in _id
+ * order on its own thread. Changed users are written back in unordered bulkWrite
+ * batches. Progress goes to "job_checkpoints" after every batch, so a crashed job
+ * resumes where each range stopped. A shared Throttle caps users per second, so live
+ * traffic keeps most of Mongo.
+ *
+ * Writes are guarded by the version each user was read at, the same check PATCH
+ * /profile uses, so the job never overwrites a choice made while it was running.
+ * Each write also tags the document with the run id ("jobRun"); users the game
+ * saved in between don't carry the tag, so they are re-read and transformed again.
+ */
+public class UserBatchJob {
+    private static final int MAX_RETRIES = 3;
+
+    private final String name;
+    private final UserTransform transform;
+    private final Settings settings;
+    private final MongoCollection<User> users;
+    private final MongoCollection<BsonDocument> rawUsers;
+    private final MongoCollection<Document> checkpoints;
+    private final Codec<User> userCodec;
+    private final Throttle throttle;
+
+    public UserBatchJob(MongoDatabase database, String name, UserTransform transform, Settings settings) {
+        this.name = name;
+        this.transform = transform;
+        this.settings = settings;
+        this.users = database.getCollection("users", User.class);
+        this.rawUsers = database.getCollection("users", BsonDocument.class);
+        this.checkpoints = database.getCollection("job_checkpoints");
+        this.userCodec = database.getCodecRegistry().get(User.class);
+        this.throttle = new Throttle(settings.maxUsersPerSecond);
+    }
+
+    // Runs (or resumes) the job and returns the totals
+    public Map<String, Object> run() throws Exception {
+        Document job = startOrResume();
+        String runId = job.getString("runId");
+        List<String> bounds = job.getList("bounds", String.class);
+        int partitions = bounds.size() - 1;
+        System.out.println("Job " + runId + ": " + partitions + " partitions");
+
+        List<Future<Progress>> results = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(partitions);
+        try {
+            for (int i = 0; i < partitions; i++) {
+                int partition = i;
+                results.add(pool.submit(() -> runPartition(runId, partition, bounds.get(partition), bounds.get(partition + 1))));
+            }
+            Progress total = new Progress();
+            for (Future<Progress> result : results) {
+                total.add(result.get());
+            }
+
+            checkpoints.updateOne(Filters.eq("_id", name), Updates.combine(
+                    Updates.set("status", "done"),
+                    Updates.set("finishedAt", new Date())));
+            return total.toMap(runId);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // --- PARTITIONS ---
+
+    private Document startOrResume() {
+        Document job = checkpoints.find(Filters.eq("_id", name)).first();
+        if (job != null && "running".equals(job.getString("status")) && !settings.restart) {
+            System.out.println("Resuming " + job.getString("runId"));
+            return job;
+        }
+
+        checkpoints.deleteMany(Filters.regex("_id", "^" + Pattern.quote(name + ":")));
+        job = new Document("_id", name)
+                .append("runId", name + "@" + System.currentTimeMillis())
+                .append("status", "running")
+                .append("bounds", splitPoints(settings.partitions))
+                .append("startedAt", new Date());
+        checkpoints.replaceOne(Filters.eq("_id", name), job, new ReplaceOptions().upsert(true));
+        return job;
+    }
+
+    // partitions + 1 bounds; null at either end means unbounded
+    private List<String> splitPoints(int partitions) {
+        MongoCollection<Document> ids = rawUsers.withDocumentClass(Document.class);
+        long count = ids.countDocuments(stringIds());
+        List<String> bounds = new ArrayList<>();
+        bounds.add(null);
+        for (int i = 1; i < partitions; i++) {
+            Document at = ids.find(stringIds())
+                    .sort(Sorts.ascending("_id"))
+                    .skip((int) (count * i / partitions))
+                    .limit(1)
+                    .projection(Projections.include("_id"))
+                    .first();
+            if (at != null) {
+                bounds.add(at.getString("_id"));
+            }
+        }
+        bounds.add(null);
+        return bounds;
+    }
+
+    private Progress runPartition(String runId, int partition, String from, String to) throws Exception {
+        String checkpointId = name + ":" + partition;
+        Document checkpoint = checkpoints.find(Filters.eq("_id", checkpointId)).first();
+        if (checkpoint != null && checkpoint.getBoolean("done", false)) {
+            return Progress.from(checkpoint);
+        }
+
+        List<Bson> range = new ArrayList<>();
+        range.add(stringIds());
+        if (from != null) {
+            range.add(Filters.gte("_id", from));
+        }
+        if (to != null) {
+            range.add(Filters.lt("_id", to));
+        }
+        String lastId = checkpoint == null ? null : checkpoint.getString("lastId");
+        if (lastId != null) {
+            range.add(Filters.gt("_id", lastId));
+        }
+
+        try (MongoCursor<User> cursor = users.find(Filters.and(range))
+                .sort(Sorts.ascending("_id"))
+                .batchSize(settings.batchSize)
+                .iterator()) {
+            List<User> batch = new ArrayList<>(settings.batchSize);
+            while (cursor.hasNext()) {
+                batch.add(cursor.next());
+                if (batch.size() == settings.batchSize) {
+                    checkpoint(checkpointId, writeBatch(runId, batch), batch.get(batch.size() - 1).id, false);
+                    batch.clear();
+                }
+            }
+            Progress last = batch.isEmpty() ? new Progress() : writeBatch(runId, batch);
+            checkpoint(checkpointId, last, batch.isEmpty() ? lastId : batch.get(batch.size() - 1).id, true);
+        }
+        // Re-read so the totals include every batch, resumed runs included
+        return Progress.from(checkpoints.find(Filters.eq("_id", checkpointId)).first());
+    }
+
+    // --- WRITES ---
+
+    private Progress writeBatch(String runId, List<User> batch) throws InterruptedException {
+        throttle.acquire(batch.size());
+        Progress progress = new Progress();
+        progress.scanned = batch.size();
+
+        List<User> pending = batch;
+        for (int attempt = 0; attempt <= MAX_RETRIES && !pending.isEmpty(); attempt++) {
+            List<WriteModel<BsonDocument>> writes = new ArrayList<>();
+            List<String> written = new ArrayList<>();
+            for (User user : pending) {
+                long readVersion = user.version;
+                if (!transform.apply(user)) {
+                    progress.skipped++;
+                    continue;
+                }
+                user.calculateScore();
+                user.version = readVersion + 1;
+                writes.add(new ReplaceOneModel<>(
+                        Filters.and(Filters.eq("_id", user.id), versionFilter(readVersion)),
+                        tagged(user, runId)));
+                written.add(user.id);
+            }
+            if (writes.isEmpty()) {
+                break;
+            }
+
+            BulkWriteResult result = rawUsers.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+            if (result.getMatchedCount() == writes.size()) {
+                progress.written += writes.size();
+                break;
+            }
+            // Someone saved a few of these in between: find them and go again from their current state
+            pending = users.find(Filters.and(Filters.in("_id", written), Filters.ne("jobRun", runId)))
+                    .into(new ArrayList<>());
+            progress.written += writes.size() - pending.size();
+            if (attempt == MAX_RETRIES) {
+                progress.conflicts += pending.size();
+                System.err.println("Job " + runId + ": gave up on " + pending.size() + " users changed during the run");
+            }
+        }
+        return progress;
+    }
+
+    // The user as a raw document, plus the run id so retries can tell our writes from the game's
+    private BsonDocument tagged(User user, String runId) {
+        BsonDocument document = new BsonDocument();
+        userCodec.encode(new BsonDocumentWriter(document), user, EncoderContext.builder().build());
+        document.put("jobRun", new BsonString(runId));
+        return document;
+    }
+
+    private void checkpoint(String checkpointId, Progress batch, String lastId, boolean done) {
+        checkpoints.updateOne(Filters.eq("_id", checkpointId), Updates.combine(
+                Updates.set("lastId", lastId),
+                Updates.set("done", done),
+                Updates.set("updatedAt", new Date()),
+                Updates.inc("scanned", batch.scanned),
+                Updates.inc("written", batch.written),
+                Updates.inc("skipped", batch.skipped),
+                Updates.inc("conflicts", batch.conflicts)),
+                new UpdateOptions().upsert(true));
+    }
+
+    // Same as GameApi.versionFilter: documents written before versioning have no field at all
+    private static Bson versionFilter(long version) {
+        return version == 0
+                ? Filters.or(Filters.eq("version", 0L), Filters.exists("version", false))
+                : Filters.eq("version", version);
+    }
+
+    // User ids are strings (UUIDs, or the raw ids of old test users)
+    private static Bson stringIds() {
+        return Filters.type("_id", BsonType.STRING);
+    }
+
+    public static class Settings {
+        public int partitions = 4;
+        public int batchSize = 500;
+        public int maxUsersPerSecond = 1000;
+        public boolean restart; // ignore checkpoints from an unfinished run
+    }
+
+    private static class Progress {
+        long scanned;
+        long written;
+        long skipped;
+        long conflicts;
+
+        static Progress from(Document checkpoint) {
+            Progress p = new Progress();
+            if (checkpoint != null) {
+                p.scanned = checkpoint.get("scanned", 0L);
+                p.written = checkpoint.get("written", 0L);
+                p.skipped = checkpoint.get("skipped", 0L);
+                p.conflicts = checkpoint.get("conflicts", 0L);
+            }
+            return p;
+        }
+
+        void add(Progress other) {
+            scanned += other.scanned;
+            written += other.written;
+            skipped += other.skipped;
+            conflicts += other.conflicts;
+        }
+
+        Map<String, Object> toMap(String runId) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("runId", runId);
+            m.put("scanned", scanned);
+            m.put("written", written);
+            m.put("skipped", skipped);
+            m.put("conflicts", conflicts);
+            return m;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package ragstoriches.jobs;
+
+import ragstoriches.User;
+
+/**
+ * One step of a batch job: changes a user in place.
+ *
+ * Should be idempotent. A user the game saved while the job was writing them is
+ * re-read and transformed again, and in a narrow race that can be after the job's
+ * own write already landed.
+ */
+@FunctionalInterface
+public interface UserTransform {
+    // Returns false to leave the user untouched (nothing is written)
+    boolean apply(User user);
+}
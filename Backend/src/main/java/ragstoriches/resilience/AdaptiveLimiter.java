@@ -0,0 +1,142 @@
+package ragstoriches.resilience;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Vegas-style adaptive concurrency limit for the API.
+ *
+ * The limit is how many requests may be in flight at once. Each sampled request's
+ * latency is compared with the best latency seen recently for the same route
+ * (minRtt): if latency is close to minRtt there is no queue, so the limit grows; once
+ * latency climbs the estimated queue (limit * (1 - minRtt / rtt)) passes a threshold
+ * and the limit shrinks. Excess requests are rejected up front instead of piling up
+ * behind Mongo.
+ *
+ * Baselines are per route because routes cost very different amounts: comparing a
+ * Mongo write against a cache hit's minRtt would read as a deep queue every time.
+ *
+ * SHEDDABLE work may only use part of the limit, so it's turned away first and
+ * gameplay keeps the remaining headroom.
+ */
+public class AdaptiveLimiter {
+    public enum Priority {
+        CRITICAL, // gameplay: /choose, /profile, /cards, /shop, /auth
+        SHEDDABLE // nice-to-haves: /explain, /leaderboard
+    }
+
+    private static final double SHEDDABLE_SHARE = 0.75;
+    private static final long MIN_RTT_RESET_NANOS = 30_000_000_000L;
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile double limit;
+
+    // Guarded by this
+    private final Map<String, Baseline> baselines = new HashMap<>();
+    private volatile long lastRttNanos;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejectedCritical = new LongAdder();
+    private final LongAdder rejectedSheddable = new LongAdder();
+
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    // Returns false (and counts a rejection) when the request should be shed
+    public boolean tryAcquire(Priority priority) {
+        double allowed = priority == Priority.CRITICAL ? limit : Math.max(1, limit * SHEDDABLE_SHARE);
+        while (true) {
+            int current = inFlight.get();
+            if (current >= allowed) {
+                (priority == Priority.CRITICAL ? rejectedCritical : rejectedSheddable).increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                accepted.increment();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases a permit. Pass the route the latency belongs to, or null for requests
+     * whose latency says nothing about our own backlog (e.g. waiting on Gemini or BCrypt).
+     */
+    public void release(long rttNanos, String route) {
+        int inFlightBefore = inFlight.getAndDecrement();
+        if (route != null && rttNanos > 0) {
+            onSample(route, rttNanos, inFlightBefore);
+        }
+    }
+
+    private synchronized void onSample(String route, long rttNanos, int inFlightBefore) {
+        lastRttNanos = rttNanos;
+        long minRttNanos = baselines.computeIfAbsent(route, r -> new Baseline()).update(rttNanos);
+
+        // Don't grow the limit while we're nowhere near using it
+        double current = limit;
+        if (inFlightBefore * 2 < current) {
+            return;
+        }
+
+        double logLimit = Math.max(1, Math.log10(current));
+        double queue = current * (1 - (double) minRttNanos / rttNanos);
+        double next = current;
+        if (queue < 3 * logLimit) {
+            next = current + logLimit;
+        } else if (queue > 6 * logLimit) {
+            next = current - logLimit;
+        }
+        limit = Math.max(minLimit, Math.min(maxLimit, next));
+    }
+
+    public Map<String, Object> metrics() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("limit", (int) limit);
+        m.put("inFlight", inFlight.get());
+        Map<String, Object> minRtt = new LinkedHashMap<>();
+        synchronized (this) {
+            baselines.forEach((route, baseline) -> minRtt.put(route, baseline.minRttNanos / 1e6));
+        }
+        m.put("minRttMs", minRtt);
+        m.put("lastRttMs", lastRttNanos / 1e6);
+        m.put("accepted", accepted.sum());
+        m.put("rejectedCritical", rejectedCritical.sum());
+        m.put("rejectedSheddable", rejectedSheddable.sum());
+        return m;
+    }
+
+    // No-load latency of one route, re-learned every window so it can drift upwards
+    private static class Baseline {
+        long minRttNanos = Long.MAX_VALUE;
+        long nextMinRttNanos = Long.MAX_VALUE;
+        long windowStart = System.nanoTime();
+
+        long update(long rttNanos) {
+            long now = System.nanoTime();
+            nextMinRttNanos = Math.min(nextMinRttNanos, rttNanos);
+            if (now - windowStart > MIN_RTT_RESET_NANOS) {
+                minRttNanos = nextMinRttNanos;
+                nextMinRttNanos = Long.MAX_VALUE;
+                windowStart = now;
+            }
+            minRttNanos = Math.min(minRttNanos, rttNanos);
+            return minRttNanos;
+        }
+    }
+
+    public static class LimitExceededException extends RuntimeException {
+        public LimitExceededException(Priority priority) {
+            super("Server is busy (" + priority.name().toLowerCase() + " request shed), try again shortly");
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package ragstoriches.resilience;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Caps how many requests may be inside one downstream dependency at once.
+ *
+ * Callers beyond the limit wait up to maxWaitMillis for a permit and are then
+ * rejected with BulkheadFullException, so a slow Gemini can't hold every
+ * request thread while Mongo-only routes sit idle.
+ */
+public class Bulkhead {
+    private final String name;
+    private final int maxConcurrent;
+    private final long maxWaitMillis;
+    private final Semaphore permits;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder queueNanos = new LongAdder();
+    private final AtomicLong maxQueueNanos = new AtomicLong();
+
+    public Bulkhead(String name, int maxConcurrent, long maxWaitMillis) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.maxWaitMillis = maxWaitMillis;
+        this.permits = new Semaphore(maxConcurrent, true);
+    }
+
+    public <T> T call(Supplier<T> work) {
+        acquire();
+        try {
+            return work.get();
+        } finally {
+            permits.release();
+        }
+    }
+
+    // Same as call(), for blocking work that throws checked exceptions (HTTP, I/O)
+    public <T> T callChecked(Callable<T> work) throws Exception {
+        acquire();
+        try {
+            return work.call();
+        } finally {
+            permits.release();
+        }
+    }
+
+    public void run(Runnable work) {
+        call(() -> {
+            work.run();
+            return null;
+        });
+    }
+
+    private void acquire() {
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        long waited = System.nanoTime() - start;
+        queueNanos.add(waited);
+        maxQueueNanos.accumulateAndGet(waited, Math::max);
+
+        if (!acquired) {
+            rejected.increment();
+            throw new BulkheadFullException(name);
+        }
+        calls.increment();
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public Map<String, Object> metrics() {
+        long total = calls.sum() + rejected.sum();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("maxConcurrent", maxConcurrent);
+        m.put("inFlight", maxConcurrent - permits.availablePermits());
+        m.put("waiting", permits.getQueueLength());
+        m.put("calls", calls.sum());
+        m.put("rejected", rejected.sum());
+        m.put("avgQueueMs", total == 0 ? 0.0 : queueNanos.sum() / 1e6 / total);
+        m.put("maxQueueMs", maxQueueNanos.get() / 1e6);
+        return m;
+    }
+
+    public static class BulkheadFullException extends RuntimeException {
+        public final String bulkhead;
+
+        public BulkheadFullException(String bulkhead) {
+            super(bulkhead + " is saturated, try again shortly");
+            this.bulkhead = bulkhead;
+        }
+    }
+}
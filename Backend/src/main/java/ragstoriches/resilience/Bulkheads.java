@@ -0,0 +1,25 @@
+package ragstoriches.resilience;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// One bulkhead per downstream the request threads block on
+public class Bulkheads {
+    public final Bulkhead mongo;
+    public final Bulkhead gemini;
+    public final Bulkhead password;
+
+    public Bulkheads(Bulkhead mongo, Bulkhead gemini, Bulkhead password) {
+        this.mongo = mongo;
+        this.gemini = gemini;
+        this.password = password;
+    }
+
+    public Map<String, Object> metrics() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        for (Bulkhead b : new Bulkhead[] { mongo, gemini, password }) {
+            m.put(b.name(), b.metrics());
+        }
+        return m;
+    }
+}
@@ -0,0 +1,100 @@
+package ragstoriches.resilience;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Consecutive-failure circuit breaker.
+ *
+ * After failureThreshold failures in a row the breaker opens and callers fail fast
+ * (and serve a fallback) for openMillis. Then a single trial call is let through:
+ * success closes the breaker, failure opens it for another period. A trial that ends
+ * without an outcome (our own bulkhead was full, the client left) must call
+ * onAbandoned so the next caller can try; as a backstop a trial older than openMillis
+ * is given up on anyway.
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+
+    // Guarded by this
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+    private long trialStartedAt;
+
+    private final LongAdder opens = new LongAdder();
+    private final LongAdder shortCircuited = new LongAdder();
+
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.HALF_OPEN && trialInFlight && System.currentTimeMillis() - trialStartedAt >= openMillis) {
+            trialInFlight = false; // never reported back
+        }
+        if (state == State.HALF_OPEN && !trialInFlight) {
+            trialInFlight = true;
+            trialStartedAt = System.currentTimeMillis();
+            return true;
+        }
+        shortCircuited.increment();
+        return false;
+    }
+
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        trialInFlight = false;
+        state = State.CLOSED;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        trialInFlight = false;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            opens.increment();
+            System.err.println("Circuit breaker '" + name + "' opened after " + consecutiveFailures + " failures");
+        }
+    }
+
+    // The call finished without telling us anything about the upstream: free the trial slot
+    public synchronized void onAbandoned() {
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+        }
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    public Map<String, Object> metrics() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        synchronized (this) {
+            m.put("state", state.name());
+            m.put("consecutiveFailures", consecutiveFailures);
+        }
+        m.put("opens", opens.sum());
+        m.put("shortCircuited", shortCircuited.sum());
+        return m;
+    }
+}
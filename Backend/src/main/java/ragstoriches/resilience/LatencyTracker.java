@@ -0,0 +1,49 @@
+package ragstoriches.resilience;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Percentiles over the most recent N latency samples (a fixed ring buffer)
+public class LatencyTracker {
+    private final long[] samples;
+    private int next;
+    private int count;
+
+    public LatencyTracker(int capacity) {
+        this.samples = new long[capacity];
+    }
+
+    public synchronized void record(long millis) {
+        samples[next] = millis;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    public synchronized int count() {
+        return count;
+    }
+
+    // Returns -1 until there is at least one sample
+    public long percentile(double p) {
+        long[] sorted;
+        synchronized (this) {
+            if (count == 0) {
+                return -1;
+            }
+            sorted = Arrays.copyOf(samples, count);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    public Map<String, Object> metrics() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("samples", count());
+        m.put("p50Ms", percentile(50));
+        m.put("p95Ms", percentile(95));
+        m.put("p99Ms", percentile(99));
+        return m;
+    }
+}
@@ -12,7 +12,7 @@ import {
   DialogTrigger,
 } from "@/components/ui/dialog";
 import { Tabs, TabsContent, TabsList, TabsTrigger } from "@/components/ui/tabs";
-import { api } from "@/hooks/Api";
+import { api, guestStorage } from "@/hooks/Api";
 import { useAuth } from "./AuthContext";
 
 import {Coins} from 'lucide-react';
@@ -66,7 +66,9 @@ export const AuthPanel = () => {
 
     setSignupLoading(true);
     try {
-      const result = await api.register(signupName.trim(), signupEmail.trim(), signupPassword);
+      // Carry over whatever was played as a guest in this tab
+      const result = await api.register(signupName.trim(), signupEmail.trim(), signupPassword, guestStorage.get() ?? undefined);
+      guestStorage.clear();
       login(result.user, result.token);
       setOpen(false);
       setSignupName("");
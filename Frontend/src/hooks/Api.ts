@@ -18,6 +18,7 @@ export interface MeResponse {
 }
 
 const AUTH_TOKEN_KEY = "rtr_token";
+const GUEST_ID_KEY = "rtr_guest_id";
 
 const parseJson = <T>(raw: string): T | null => {
   try {
@@ -44,12 +45,27 @@ export const authStorage = {
   clearToken: () => localStorage.removeItem(AUTH_TOKEN_KEY),
 };
 
+// One guest id per tab, so the progress made as a guest can be claimed on sign-up
+export const guestStorage = {
+  get: () => sessionStorage.getItem(GUEST_ID_KEY),
+  getOrCreate: () => {
+    let id = sessionStorage.getItem(GUEST_ID_KEY);
+    if (!id) {
+      id = `guest_${Math.random().toString(36).slice(2, 9)}`;
+      sessionStorage.setItem(GUEST_ID_KEY, id);
+    }
+    return id;
+  },
+  clear: () => sessionStorage.removeItem(GUEST_ID_KEY),
+};
+
 export const api = {
-  register: async (name: string, email: string, password: string): Promise<AuthResponse> => {
+  // guestId: the guest_... id played with before signing up, so that progress is kept
+  register: async (name: string, email: string, password: string, guestId?: string): Promise<AuthResponse> => {
     const response = await fetch(`${API_URL}/auth/register`, {
       method: "POST",
       headers: { "Content-Type": "application/json" },
-      body: JSON.stringify({ name, email, password }),
+      body: JSON.stringify({ name, email, password, guestId }),
     });
 
     const raw = await response.text();
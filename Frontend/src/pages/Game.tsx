@@ -2,7 +2,7 @@ import { useState, useEffect } from 'react';
 import { useNavigate } from 'react-router-dom';
 import { GameBoard } from '@/components/game/GameBoard';
 import { PlayerCharacter, SituationCard, API_URL, BackendUser } from '@/types/game';
-import { api } from '@/hooks/Api';
+import { api, guestStorage } from '@/hooks/Api';
 import { Loader2 } from 'lucide-react';
 import { toast } from 'sonner';
 import { useAuth } from '@/components/auth/AuthContext';
@@ -35,7 +35,7 @@ const Game = () => {
                 } else {
                     // Generate a temporary Guest profile in memory
                     setUser({
-                        id: "guest_" + Math.random().toString(36).substring(2, 9),
+                        id: guestStorage.getOrCreate(),
                         name: "Guest Player",
                         email: "guest@example.com",
                         appearance: { outfit: "default", hat: "none", glasses: "none", accessory: "none" },
@@ -3,13 +3,13 @@ import { useNavigate } from "react-router-dom";
 import { Loader2 } from "lucide-react";
 import { HeroSection } from "@/components/game/HeroSection";
 import { TutorialSection } from "@/components/game/TutorialSection";
-import { api } from "@/hooks/Api";
+import { api, guestStorage } from "@/hooks/Api";
 import { useAuth } from "@/components/auth/AuthContext";
 import { PlayerCharacter } from "@/types/game";
 import { toast } from "sonner";
 
 const createGuestPlayer = (): PlayerCharacter => ({
-  id: `guest_${Math.random().toString(36).slice(2, 9)}`,
+  id: guestStorage.getOrCreate(),
   name: "Guest",
   email: "guest@example.com",
   appearance: { outfit: "default_outfit", hat: "none_hat", glasses: "none_glasses", accessory: "none_accessory" },